@@ -0,0 +1,239 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+
+/**
+ * An Autocompletor that builds several engines over the same terms and sends
+ * each query to the one that has recently been fastest for queries like it.
+ * 
+ * Queries are bucketed by prefix length, since that is what the engines'
+ * costs mostly depend on: a range-max binary search answers a one-letter
+ * prefix without touching its huge range, while the trie wins once the
+ * prefix is long and the binary search's comparisons dominate. For every
+ * bucket and engine the router keeps an exponentially weighted average of
+ * observed latency. Each engine is first tried MIN_SAMPLES times per
+ * bucket; after that the cheapest one is used, except that every
+ * EXPLORE_INTERVAL-th query goes to another engine so the averages follow
+ * changes in load and JIT state.
+ * 
+ * A topMatches() call is timed from the call until its first result is
+ * available, or until it is known that there is none. That is the latency a
+ * caller sees, and it is measured even when the caller stops early; work a
+ * lazy result does for later elements is not counted.
+ * 
+ * The statistics are kept in atomic arrays and never locked, so concurrent
+ * queries do not queue up behind the router. Two threads recording at once
+ * may lose one of the samples, which only makes an average slightly stale.
+ */
+public class AdaptiveAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	/**
+	 * Prefixes at least this long share the last bucket.
+	 */
+	static final int MAX_BUCKET = 12;
+	static final int MIN_SAMPLES = 4;
+	static final int EXPLORE_INTERVAL = 64;
+
+	/**
+	 * Weight of the newest sample in the latency averages.
+	 */
+	static final double ALPHA = 0.1;
+
+	private static final int TOP_MATCHES = 0;
+	private static final int TOP_MATCH = 1;
+
+	private final Autocomplete.Autocompletor[] myEngines;
+
+	/**
+	 * For slot = op * (MAX_BUCKET + 1) + bucket, myLatency[slot * n + engine]
+	 * holds the bits of the average latency in nanoseconds,
+	 * mySamples[slot * n + engine] the number of samples behind it and
+	 * myQueries[slot] the number of queries routed, where n is the number of
+	 * engines.
+	 */
+	private final AtomicLongArray myLatency;
+	private final AtomicIntegerArray mySamples;
+	private final AtomicLongArray myQueries;
+
+	/**
+	 * Routes between a TrieAutocomplete and a BinarySearchAutocomplete.
+	 */
+	public AdaptiveAutocomplete(String[] terms, double[] weights) {
+		this(terms, weights, Arrays.asList(AutocompletorRegistry.factory(AutocompleteMain.TRIE_AUTOCOMPLETE),
+				AutocompletorRegistry.factory(AutocompleteMain.BINARY_SEARCH_AUTOCOMPLETE)));
+	}
+
+	/**
+	 * Builds one engine over terms and weights with each of engines and
+	 * routes between them.
+	 * 
+	 * @throws NullPointerException
+	 *             if any argument is null
+	 * @throws IllegalArgumentException
+	 *             if no engine is given
+	 */
+	public AdaptiveAutocomplete(String[] terms, double[] weights,
+			List<BiFunction<String[], double[], Autocomplete.Autocompletor>> engines) {
+		this(build(terms, weights, engines));
+	}
+
+	/**
+	 * Routes between already built engines, which must hold the same terms.
+	 * weightOf() is answered by the first.
+	 */
+	public AdaptiveAutocomplete(Autocomplete.Autocompletor... engines) {
+		if (engines == null)
+			throw new NullPointerException("One or more arguments null");
+		if (engines.length == 0)
+			throw new IllegalArgumentException("No engines to route between");
+		for (Autocomplete.Autocompletor engine : engines)
+			if (engine == null)
+				throw new NullPointerException("One or more arguments null");
+		myEngines = engines.clone();
+		int slots = 2 * (MAX_BUCKET + 1);
+		myLatency = new AtomicLongArray(slots * engines.length);
+		mySamples = new AtomicIntegerArray(slots * engines.length);
+		myQueries = new AtomicLongArray(slots);
+	}
+
+	private static Autocomplete.Autocompletor[] build(String[] terms, double[] weights,
+			List<BiFunction<String[], double[], Autocomplete.Autocompletor>> engines) {
+		if (terms == null || weights == null || engines == null)
+			throw new NullPointerException("One or more arguments null");
+		Autocomplete.Autocompletor[] built = new Autocomplete.Autocompletor[engines.size()];
+		for (int i = 0; i < built.length; i++)
+			built[i] = engines.get(i).apply(terms, weights);
+		return built;
+	}
+
+	private static int bucket(String prefix) {
+		return Math.min(prefix.length(), MAX_BUCKET);
+	}
+
+	private static int slot(int op, int bucket) {
+		return op * (MAX_BUCKET + 1) + bucket;
+	}
+
+	private double latency(int slot, int engine) {
+		return Double.longBitsToDouble(myLatency.get(slot * myEngines.length + engine));
+	}
+
+	/**
+	 * Picks the engine for the next query of kind op in bucket.
+	 */
+	int route(int op, int bucket) {
+		int slot = slot(op, bucket);
+		long query = myQueries.getAndIncrement(slot);
+		int best = 0;
+		double bestLatency = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < myEngines.length; i++) {
+			if (mySamples.get(slot * myEngines.length + i) < MIN_SAMPLES)
+				return i;
+			double latency = latency(slot, i);
+			if (latency < bestLatency) {
+				best = i;
+				bestLatency = latency;
+			}
+		}
+		if (myEngines.length > 1 && query % EXPLORE_INTERVAL == 0) {
+			// visit the other engines in turn
+			int other = (int) (query / EXPLORE_INTERVAL % (myEngines.length - 1));
+			return other < best ? other : other + 1;
+		}
+		return best;
+	}
+
+	void record(int op, int bucket, int engine, long nanos) {
+		int slot = slot(op, bucket);
+		int i = slot * myEngines.length + engine;
+		int samples = mySamples.getAndIncrement(i);
+		// A plain read and write rather than a compare-and-set loop: a sample
+		// lost to a concurrent record() is not worth retrying for.
+		double latency = latency(slot, engine);
+		myLatency.set(i, Double.doubleToRawLongBits(samples == 0 ? nanos : latency + ALPHA * (nanos - latency)));
+	}
+
+	/**
+	 * Returns the engine topMatches() currently prefers for prefixes of the
+	 * given length.
+	 */
+	public Autocomplete.Autocompletor preferredEngine(int prefixLength) {
+		int slot = slot(TOP_MATCHES, Math.min(prefixLength, MAX_BUCKET));
+		int best = 0;
+		double bestLatency = latency(slot, 0);
+		for (int i = 1; i < myEngines.length; i++) {
+			double latency = latency(slot, i);
+			if (latency < bestLatency) {
+				best = i;
+				bestLatency = latency;
+			}
+		}
+		return myEngines[best];
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return topMatches(prefix, k, MatchFilter.NONE);
+	}
+
+	public Iterable<String> topMatches(String prefix, int k, MatchFilter filter) {
+		if (prefix == null || filter == null)
+			throw new NullPointerException("One or more arguments null");
+		final int bucket = bucket(prefix);
+		final int engine = route(TOP_MATCHES, bucket);
+		final long start = System.nanoTime();
+		final Iterable<String> matches = myEngines[engine].topMatches(prefix, k, filter);
+		final long setup = System.nanoTime() - start;
+		return new Iterable<String>() {
+			private boolean recorded;
+
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private final Iterator<String> it = matches.iterator();
+
+					public boolean hasNext() {
+						if (recorded)
+							return it.hasNext();
+						long start = System.nanoTime();
+						boolean more = it.hasNext();
+						recorded = true;
+						record(TOP_MATCHES, bucket, engine, setup + System.nanoTime() - start);
+						return more;
+					}
+
+					public String next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						return it.next();
+					}
+				};
+			}
+		};
+	}
+
+	public String topMatch(String prefix) {
+		if (prefix == null)
+			throw new NullPointerException();
+		int bucket = bucket(prefix);
+		int engine = route(TOP_MATCH, bucket);
+		long start = System.nanoTime();
+		String match = myEngines[engine].topMatch(prefix);
+		record(TOP_MATCH, bucket, engine, System.nanoTime() - start);
+		return match;
+	}
+
+	/**
+	 * Asks the first engine, since a lookup costs about the same everywhere.
+	 */
+	public double weightOf(String term) {
+		return myEngines[0].weightOf(term);
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		for (Autocomplete.Autocompletor engine : myEngines)
+			footprint.addMeasurable(engine);
+	}
+}
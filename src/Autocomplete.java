@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class Autocomplete {
         /**
@@ -73,12 +76,33 @@ public class Autocomplete {
          * Returns the top k matching terms in descending order of weight. If there
          * are fewer than k matches, return all matching terms in descending order
          * of weight. If there are no matches, return an empty iterable.
+         * 
+         * Implementations may compute the result lazily, producing each match
+         * only when the iterator asks for it, so k may be Integer.MAX_VALUE and
+         * callers that stop early pay only for what they consume. Each call to
+         * iterator() starts over.
+         * 
+         * Terms of equal weight come out in ascending lexicographic order
+         * (String.compareTo), as in Term.ReverseWeightOrder, so every engine
+         * returns the same sequence for the same dictionary. Engines that
+         * quantise weights (RangeMaxIndex.Precision.FLOAT) only keep this
+         * for weights that stay distinct after rounding.
          */
         public Iterable<String> topMatches(String prefix, int k);
 
+        /**
+         * Returns the top k matching terms that pass filter, in descending order
+         * of weight, like topMatches(prefix, k). The filter is applied during the
+         * search rather than to its output, so up to k results are returned
+         * whenever that many matching terms pass it, and parts of the dictionary
+         * too light for filter.getMinWeight() are skipped.
+         */
+        public Iterable<String> topMatches(String prefix, int k, MatchFilter filter);
+
         /**
          * Returns the single top matching term, or an empty String if there are no
-         * matches.
+         * matches. Among terms of equal weight it is the lexicographically
+         * smallest, i.e. the first term topMatches would return.
          */
         public String topMatch(String prefix);
 
@@ -92,7 +116,12 @@ public class Autocomplete {
      * Implements Autocompletor by scanning through the entire array of terms for
      * every topKMatches or topMatch query.
      */
-    public static class BruteAutocomplete implements Autocompletor {
+    public static class BruteAutocomplete implements Autocompletor, MemoryFootprint.Measurable {
+
+        /**
+         * Orders the top-k heaps so that their head is the term to evict.
+         */
+        static final Comparator<Term> WEIGHT_ORDER = new Term.WeightOrder();
 
         Term[] myTerms;
 
@@ -116,18 +145,115 @@ public class Autocomplete {
         public Iterable<String> topMatches(String prefix, int k) {
             if (k < 0)
                 throw new IllegalArgumentException("Illegal value of k:"+k);
+            return toDescendingList(scanTopMatches(prefix, k, 0, myTerms.length), k);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k, MatchFilter filter) {
+            if (k < 0)
+                throw new IllegalArgumentException("Illegal value of k:"+k);
+            if (prefix == null || filter == null)
+                throw new NullPointerException("One or more arguments null");
+            PriorityQueue<Term> pq = new PriorityQueue<Term>(Math.max(1, Math.min(k, myTerms.length)), WEIGHT_ORDER);
+            for (int i = 0; i < myTerms.length; i++) {
+                Term t = myTerms[i];
+                if (!filter.acceptsWeight(t.getWeight()) || !t.getWord().startsWith(prefix))
+                    continue;
+                if (filter.acceptsId(i) && filter.acceptsWord(t.getWord()))
+                    offer(pq, t, k);
+            }
+            return toDescendingList(pq, k);
+        }
+
+        public String topMatch(String prefix) {
+            Term best = scanTopMatch(prefix, 0, myTerms.length);
+            return best == null ? "" : best.getWord();
+        }
+
+        public double weightOf(String term) {
+            int i = scanWeightOf(term, 0, myTerms.length);
+            // term is not in dictionary return 0
+            return i < 0 ? 0 : myTerms[i].getWeight();
+        }
+
+        public void measure(MemoryFootprint footprint) {
+            footprint.addArray("arrays", myTerms);
+            for (Term t : myTerms)
+                footprint.addTerm("terms", "strings", t);
+        }
+
+        /**
+         * Scans myTerms[from..to) and returns a min-heap (by weight) of the at
+         * most k heaviest terms starting with prefix.
+         */
+        PriorityQueue<Term> scanTopMatches(String prefix, int k, int from, int to) {
             // maintain pq of size k
-            PriorityQueue<Term> pq = new PriorityQueue<Term>(k, new Term.WeightOrder());
-            for (Term t : myTerms) {
+            PriorityQueue<Term> pq = new PriorityQueue<Term>(Math.max(1, Math.min(k, to - from)), WEIGHT_ORDER);
+            for (int i = from; i < to; i++) {
+                Term t = myTerms[i];
                 if (!t.getWord().startsWith(prefix))
                     continue;
-                if (pq.size() < k) {
-                    pq.add(t);
-                } else if (pq.peek().getWeight() < t.getWeight()) {
-                    pq.remove();
-                    pq.add(t);
-                }
+                offer(pq, t, k);
             }
+            return pq;
+        }
+
+        /**
+         * Scans myTerms[from..to) and returns the heaviest term starting with
+         * prefix, or null if there is none. Ties go to the lexicographically
+         * smallest term.
+         */
+        Term scanTopMatch(String prefix, int from, int to) {
+            Term best = null;
+            for (int i = from; i < to; i++) {
+                Term t = myTerms[i];
+                if (precedes(t, best) && t.getWord().startsWith(prefix))
+                    best = t;
+            }
+            return best;
+        }
+
+        /**
+         * Scans myTerms[from..to) and returns the index of the first term equal
+         * to term, or -1 if there is none. Case is not ignored, as in the other
+         * engines; see NormalizingAutocomplete for case-insensitive matching.
+         */
+        int scanWeightOf(String term, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (myTerms[i].getWord().equals(term))
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Whether t comes before best (which may be null) in result order:
+         * heavier, or as heavy and lexicographically smaller. The words are
+         * only compared on a tie.
+         */
+        static boolean precedes(Term t, Term best) {
+            if (best == null || t.getWeight() > best.getWeight())
+                return true;
+            return t.getWeight() == best.getWeight() && t.getWord().compareTo(best.getWord()) < 0;
+        }
+
+        /**
+         * Adds t to pq, a min-heap of at most k terms ordered by WEIGHT_ORDER,
+         * if it is among the first k in result order seen so far.
+         */
+        static void offer(PriorityQueue<Term> pq, Term t, int k) {
+            if (pq.size() < k) {
+                pq.add(t);
+            } else if (k > 0 && precedes(t, pq.peek())) {
+                pq.remove();
+                pq.add(t);
+            }
+        }
+
+        /**
+         * Drains a min-heap of at most k terms into a list of words in result
+         * order.
+         */
+        static LinkedList<String> toDescendingList(PriorityQueue<Term> pq, int k) {
             int numResults = Math.min(k, pq.size());
             LinkedList<String> ret = new LinkedList<String>();
             for (int i = 0; i < numResults; i++) {
@@ -135,26 +261,253 @@ public class Autocomplete {
             }
             return ret;
         }
+    }
+
+    /**
+     * A BruteAutocomplete that splits the scan of myTerms into chunks and runs
+     * them on the common ForkJoinPool. Each chunk keeps its own top k, and the
+     * chunk results are merged pairwise on the way back up. Like its parent it
+     * needs no build step, so it suits dictionaries that change constantly.
+     * 
+     * The chunk size adapts to the number of terms and the pool's parallelism,
+     * aiming for a few chunks per worker so that stragglers can be stolen.
+     * Small dictionaries are scanned on the calling thread.
+     */
+    public static class ParallelBruteAutocomplete extends BruteAutocomplete {
+
+        /**
+         * Below this many terms per chunk the fork overhead outweighs the scan.
+         */
+        static final int MIN_CHUNK = 4096;
+
+        /**
+         * Chunks per worker thread, for load balancing.
+         */
+        static final int CHUNKS_PER_THREAD = 4;
+
+        private final ForkJoinPool myPool;
+        private final int myChunk;
+
+        public ParallelBruteAutocomplete(String[] terms, double[] weights) {
+            this(terms, weights, ForkJoinPool.commonPool());
+        }
+
+        public ParallelBruteAutocomplete(String[] terms, double[] weights, ForkJoinPool pool) {
+            super(terms, weights);
+            if (pool == null)
+                throw new NullPointerException("pool is null");
+            myPool = pool;
+            int chunks = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+            myChunk = Math.max(MIN_CHUNK, (myTerms.length + chunks - 1) / chunks);
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            if (k < 0)
+                throw new IllegalArgumentException("Illegal value of k:"+k);
+            if (prefix == null)
+                throw new NullPointerException("Prefix is null.");
+            if (myTerms.length <= myChunk)
+                return super.topMatches(prefix, k);
+            return toDescendingList(myPool.invoke(new TopMatchesTask(prefix, k, 0, myTerms.length)), k);
+        }
 
         public String topMatch(String prefix) {
-            String maxTerm = "";
-            double maxWeight = -1;
-            for (Term t : myTerms) {
-                if (t.getWeight() > maxWeight && t.getWord().startsWith(prefix)) {
-                    maxWeight = t.getWeight();
-                    maxTerm = t.getWord();
+            if (prefix == null)
+                throw new NullPointerException("Prefix is null.");
+            if (myTerms.length <= myChunk)
+                return super.topMatch(prefix);
+            Term best = myPool.invoke(new TopMatchTask(prefix, 0, myTerms.length));
+            return best == null ? "" : best.getWord();
+        }
+
+        public double weightOf(String term) {
+            if (myTerms.length <= myChunk)
+                return super.weightOf(term);
+            int i = myPool.invoke(new WeightOfTask(term, 0, myTerms.length));
+            return i < 0 ? 0 : myTerms[i].getWeight();
+        }
+
+        @SuppressWarnings("serial")
+        private class TopMatchesTask extends RecursiveTask<PriorityQueue<Term>> {
+            private final String prefix;
+            private final int k, from, to;
+
+            TopMatchesTask(String prefix, int k, int from, int to) {
+                this.prefix = prefix;
+                this.k = k;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected PriorityQueue<Term> compute() {
+                if (to - from <= myChunk)
+                    return scanTopMatches(prefix, k, from, to);
+                int mid = (from + to) >>> 1;
+                TopMatchesTask right = new TopMatchesTask(prefix, k, mid, to);
+                right.fork();
+                PriorityQueue<Term> left = new TopMatchesTask(prefix, k, from, mid).compute();
+                PriorityQueue<Term> other = right.join();
+                if (left.size() < other.size()) {
+                    PriorityQueue<Term> tmp = left;
+                    left = other;
+                    other = tmp;
                 }
+                for (Term t : other)
+                    offer(left, t, k);
+                return left;
             }
-            return maxTerm;
         }
 
-        public double weightOf(String term) {
-            for (Term t : myTerms) {
-                if (t.getWord().equalsIgnoreCase(term))
-                    return t.getWeight();
+        @SuppressWarnings("serial")
+        private class TopMatchTask extends RecursiveTask<Term> {
+            private final String prefix;
+            private final int from, to;
+
+            TopMatchTask(String prefix, int from, int to) {
+                this.prefix = prefix;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Term compute() {
+                if (to - from <= myChunk)
+                    return scanTopMatch(prefix, from, to);
+                int mid = (from + to) >>> 1;
+                TopMatchTask right = new TopMatchTask(prefix, mid, to);
+                right.fork();
+                Term left = new TopMatchTask(prefix, from, mid).compute();
+                Term other = right.join();
+                if (other != null && precedes(other, left))
+                    return other;
+                return left;
+            }
+        }
+
+        @SuppressWarnings("serial")
+        private class WeightOfTask extends RecursiveTask<Integer> {
+            private final String term;
+            private final int from, to;
+
+            WeightOfTask(String term, int from, int to) {
+                this.term = term;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Integer compute() {
+                if (to - from <= myChunk)
+                    return scanWeightOf(term, from, to);
+                int mid = (from + to) >>> 1;
+                WeightOfTask right = new WeightOfTask(term, mid, to);
+                right.fork();
+                int left = new WeightOfTask(term, from, mid).compute();
+                int other = right.join();
+                return left >= 0 ? left : other;
             }
-            // term is not in dictionary return 0
-            return 0;
+        }
+    }
+    /**
+     * A BruteAutocomplete that filters terms on a packed copy of their first
+     * eight chars before touching any String. Term i's first eight UTF-16
+     * chars are stored as two longs at myKeys[2i] and myKeys[2i + 1], four
+     * chars per long, padded with zero chars. A query packs its prefix the same
+     * way once, along with a mask over the chars it uses, so each term costs
+     * two masked compares over a contiguous array. The full String is only
+     * checked for candidates when the prefix is longer than eight chars or
+     * contains a zero char, which the padding cannot tell apart.
+     */
+    public static class PackedBruteAutocomplete extends BruteAutocomplete {
+
+        static final int PACKED_CHARS = 8;
+
+        final long[] myKeys;
+
+        public PackedBruteAutocomplete(String[] terms, double[] weights) {
+            super(terms, weights);
+            myKeys = new long[2 * myTerms.length];
+            for (int i = 0; i < myTerms.length; i++) {
+                String word = myTerms[i].getWord();
+                myKeys[2 * i] = pack(word, 0);
+                myKeys[2 * i + 1] = pack(word, 4);
+            }
+        }
+
+        @Override
+        public void measure(MemoryFootprint footprint) {
+            super.measure(footprint);
+            footprint.addArray("packed keys", myKeys);
+        }
+
+        /**
+         * Packs s.charAt(from) .. s.charAt(from + 3) into a long, first char in
+         * the high bits, with zero chars past the end of s.
+         */
+        static long pack(String s, int from) {
+            long key = 0;
+            for (int i = from; i < from + 4; i++) {
+                key <<= 16;
+                if (i < s.length())
+                    key |= s.charAt(i);
+            }
+            return key;
+        }
+
+        /**
+         * Mask over the first n chars of a long built by pack().
+         */
+        static long mask(int n) {
+            if (n <= 0)
+                return 0;
+            if (n >= 4)
+                return -1L;
+            return -1L << (16 * (4 - n));
+        }
+
+        /**
+         * Whether the packed keys cannot decide a match for prefix alone.
+         */
+        static boolean needsVerify(String prefix) {
+            if (prefix.length() > PACKED_CHARS)
+                return true;
+            return prefix.indexOf('\0') >= 0;
+        }
+
+        @Override
+        PriorityQueue<Term> scanTopMatches(String prefix, int k, int from, int to) {
+            long k0 = pack(prefix, 0), k1 = pack(prefix, 4);
+            long m0 = mask(prefix.length()), m1 = mask(prefix.length() - 4);
+            boolean verify = needsVerify(prefix);
+            long[] keys = myKeys;
+            PriorityQueue<Term> pq = new PriorityQueue<Term>(Math.max(1, Math.min(k, to - from)), WEIGHT_ORDER);
+            for (int i = from; i < to; i++) {
+                if ((((keys[2 * i] & m0) ^ k0) | ((keys[2 * i + 1] & m1) ^ k1)) != 0)
+                    continue;
+                Term t = myTerms[i];
+                if (verify && !t.getWord().startsWith(prefix))
+                    continue;
+                offer(pq, t, k);
+            }
+            return pq;
+        }
+
+        @Override
+        Term scanTopMatch(String prefix, int from, int to) {
+            long k0 = pack(prefix, 0), k1 = pack(prefix, 4);
+            long m0 = mask(prefix.length()), m1 = mask(prefix.length() - 4);
+            boolean verify = needsVerify(prefix);
+            long[] keys = myKeys;
+            Term best = null;
+            for (int i = from; i < to; i++) {
+                if ((((keys[2 * i] & m0) ^ k0) | ((keys[2 * i + 1] & m1) ^ k1)) != 0)
+                    continue;
+                Term t = myTerms[i];
+                if (precedes(t, best) && (!verify || t.getWord().startsWith(prefix)))
+                    best = t;
+            }
+            return best;
         }
     }
    /**
@@ -166,9 +519,22 @@ public class Autocomplete {
      * @author Jeff Forbes
      */
     @SuppressWarnings("JavadocReference")
-    public static class BinarySearchAutocomplete implements Autocompletor {
+    public static class BinarySearchAutocomplete implements Autocompletor, MemoryFootprint.Measurable {
 
-        Term[] myTerms;
+        final Term[] myTerms;
+
+        /**
+         * myIds[i] is the index in the constructor's arrays of myTerms[i], i.e.
+         * its term id.
+         */
+        final int[] myIds;
+
+        /**
+         * Range-max index over the weights of myTerms. Their positions are in
+         * String order, which is how the Autocompletor contract breaks ties,
+         * so it needs no tie ranks.
+         */
+        final RangeMaxIndex myMaxIndex;
 
         /**
          * Given arrays of words and weights, initialize myTerms to a corresponding
@@ -188,13 +554,56 @@ public class Autocomplete {
          *             NullPointerException if either argument passed in is null
          */
         public BinarySearchAutocomplete(String[] terms, double[] weights) {
-            if (terms == null || weights == null)
+            this(terms, weights, RangeMaxIndex.Precision.RANK);
+        }
+
+        /**
+         * Builds the engine with weights compared at the given precision inside
+         * the range-max index. weightOf() always returns the original weights.
+         */
+        public BinarySearchAutocomplete(String[] terms, double[] weights, RangeMaxIndex.Precision precision) {
+            if (terms == null || weights == null || precision == null)
                 throw new NullPointerException("One or more arguments null");
-            myTerms = new Term[terms.length];
+            myIds = new int[terms.length];
+            myTerms = sortTerms(terms, weights, myIds);
+            myMaxIndex = maxIndex(myTerms, precision);
+        }
+
+        /**
+         * Returns Terms for terms and weights sorted lexicographically, and
+         * stores the index in the input arrays of the i-th one in ids[i].
+         */
+        static Term[] sortTerms(String[] terms, double[] weights, int[] ids) {
+            Term[] unsorted = new Term[terms.length];
+            Integer[] order = new Integer[terms.length];
             for (int i = 0; i < terms.length; i++) {
-                myTerms[i] = new Term(terms[i], weights[i]);
+                unsorted[i] = new Term(terms[i], weights[i]);
+                order[i] = i;
             }
-            Arrays.sort(myTerms);
+            // Sort positions rather than Terms so each Term keeps its input id.
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return unsorted[a].compareTo(unsorted[b]);
+                }
+            });
+            Term[] sorted = new Term[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                sorted[i] = unsorted[order[i]];
+                ids[i] = order[i];
+                if (i > 0 && sorted[i].getWord().equals(sorted[i - 1].getWord()))
+                    throw new IllegalArgumentException("Duplicate input terms");
+            }
+            return sorted;
+        }
+
+        /**
+         * Builds the range-max index over the weights of sorted terms.
+         */
+        static RangeMaxIndex maxIndex(Term[] terms, RangeMaxIndex.Precision precision) {
+            double[] weights = new double[terms.length];
+            for (int i = 0; i < terms.length; i++)
+                weights[i] = terms[i].getWeight();
+            return new RangeMaxIndex(weights, precision);
         }
 
         /**
@@ -218,26 +627,22 @@ public class Autocomplete {
          *             NullPointerException if prefix is null
          */
         public Iterable<String> topMatches(String prefix, int k) {
-            if (prefix == null) throw new NullPointerException();
+            return topMatches(prefix, k, MatchFilter.NONE);
+        }
+
+        public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter) {
+            if (prefix == null || filter == null) throw new NullPointerException();
+            if (k < 0)
+                throw new IllegalArgumentException("Illegal value of k:"+k);
             int f = firstIndexOf(myTerms, new Term(prefix, 0) , new Term.PrefixOrder(prefix.length()));
             int l = lastIndexOf(myTerms, new Term(prefix, 0) , new Term.PrefixOrder(prefix.length()));
-            if (l < 0) return new ArrayList<String>();
-            PriorityQueue<Term> pq = new PriorityQueue<Term>(k, new Term.WeightOrder());
-            for (int i = f; i <= l; i++) {
-                Term t = myTerms[i];
-                if (pq.size() < k) {
-                    pq.add(t);
-                } else if (pq.peek().getWeight() < t.getWeight()) {
-                    pq.remove();
-                    pq.add(t);
+            if (l < 0 || k == 0) return new ArrayList<String>();
+            final int first = f, last = l;
+            return new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new RangeMaxIterator(first, last, k, filter);
                 }
-            }
-            int numResults = Math.min(k, pq.size());
-            LinkedList<String> ret = new LinkedList<String>();
-            for (int i = 0; i < numResults; i++) {
-                ret.addFirst(pq.remove().getWord());
-            }
-            return ret;
+            };
         }
 
         /**
@@ -257,17 +662,52 @@ public class Autocomplete {
             if (prefix == null) throw new NullPointerException();
             int f = firstIndexOf(myTerms, new Term(prefix, 0) , new Term.PrefixOrder(prefix.length()));
             int l = lastIndexOf(myTerms, new Term(prefix, 0) , new Term.PrefixOrder(prefix.length()));
-            ArrayList<Term> found = new ArrayList<Term>();
             if (l < 0) return "";
-            double maxWeight = myTerms[f].getWeight();
-            int maxWeightIndex = f;
-            for (int i = f+1; i <= l; i++) {
-                if (myTerms[i].getWeight() > maxWeight) {
-                    maxWeight = myTerms[i].getWeight();
-                    maxWeightIndex = i;
+            return myTerms[myMaxIndex.argMax(f, l)].getWord();
+        }
+
+        /**
+         * Yields the terms of myTerms[lo..hi] that pass a filter in descending
+         * weight order, at most k of them.
+         */
+        private class RangeMaxIterator implements Iterator<String> {
+            private final RangeMaxIndex.Cursor cursor;
+            private final MatchFilter filter;
+            private int remaining;
+            private String pending;
+
+            RangeMaxIterator(int lo, int hi, int k, MatchFilter filter) {
+                cursor = myMaxIndex.cursor(lo, hi, filter.getMinWeight());
+                this.filter = filter;
+                remaining = k;
+            }
+
+            public boolean hasNext() {
+                if (pending == null && remaining > 0)
+                    pending = advance();
+                return pending != null;
+            }
+
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                String word = pending;
+                pending = null;
+                remaining--;
+                return word;
+            }
+
+            /**
+             * Returns the next term that passes the filter, or null.
+             */
+            private String advance() {
+                for (int top = cursor.next(); top >= 0; top = cursor.next()) {
+                    String word = myTerms[top].getWord();
+                    if (filter.acceptsId(myIds[top]) && filter.acceptsWord(word))
+                        return word;
                 }
+                return null;
             }
-            return myTerms[maxWeightIndex].getWord();
         }
 
         /**
@@ -275,9 +715,428 @@ public class Autocomplete {
          * return 0.0
          */
         public double weightOf(String term) {
-            return 0.0;
+            if (term == null)
+                throw new NullPointerException("Term is null.");
+            int i = Arrays.binarySearch(myTerms, new Term(term, 0));
+            // term is not in dictionary return 0
+            return i < 0 ? 0.0 : myTerms[i].getWeight();
+        }
+
+        public void measure(MemoryFootprint footprint) {
+            footprint.addArray("arrays", myTerms);
+            for (Term t : myTerms)
+                footprint.addTerm("terms", "strings", t);
+            footprint.addArray("arrays", myIds);
+            footprint.addMeasurable(myMaxIndex);
         }
     }
+    /**
+     * A BinarySearchAutocomplete whose dictionary can be updated without
+     * re-sorting it, in the style of a log-structured merge tree. The sorted
+     * Term[] is never modified; instead put() and remove() record inserts,
+     * weight changes and tombstones in a small sorted delta map. Queries look
+     * up the prefix range in both and let the delta win.
+     * 
+     * Once the delta holds more than COMPACT_FRACTION of the main array (and
+     * at least MIN_COMPACT_SIZE entries), it is frozen, a fresh delta takes new
+     * updates, and a background thread merges the frozen delta into a new main
+     * array in linear time. Readers see a consistent State at all times.
+     * 
+     * A query walks the main array's prefix range through its range-max index,
+     * heaviest first, skipping the words a delta overrides, and merges that
+     * with the delta entries under the prefix. It reads only as far into the
+     * range as the results need.
+     */
+    public static class IncrementalBinarySearchAutocomplete extends BinarySearchAutocomplete {
+
+        static final int MIN_COMPACT_SIZE = 1024;
+        static final int COMPACT_FRACTION = 16;
+
+        /**
+         * Delta value marking a removed term. Compared by identity.
+         */
+        private static final Term TOMBSTONE = new Term("", 0);
+
+        /**
+         * The main array and its range-max index plus the deltas layered over
+         * it, newest first. flushing is non-null only while a compaction is
+         * running.
+         */
+        private static class State {
+            final Term[] main;
+            final int[] ids;
+            final RangeMaxIndex maxIndex;
+            final ConcurrentSkipListMap<String, Term> flushing;
+            final ConcurrentSkipListMap<String, Term> active;
+
+            State(Term[] main, int[] ids, RangeMaxIndex maxIndex, ConcurrentSkipListMap<String, Term> flushing,
+                  ConcurrentSkipListMap<String, Term> active) {
+                this.main = main;
+                this.ids = ids;
+                this.maxIndex = maxIndex;
+                this.flushing = flushing;
+                this.active = active;
+            }
+        }
+
+        private volatile State myState;
+
+        /**
+         * Precision of the range-max index, kept for the ones compaction builds.
+         */
+        private final RangeMaxIndex.Precision myPrecision;
+
+        public IncrementalBinarySearchAutocomplete(String[] terms, double[] weights) {
+            this(terms, weights, RangeMaxIndex.Precision.RANK);
+        }
+
+        public IncrementalBinarySearchAutocomplete(String[] terms, double[] weights,
+                RangeMaxIndex.Precision precision) {
+            // Compaction replaces the main array, so it is kept in myState
+            // only and the inherited fields are left empty.
+            super(new String[0], new double[0], precision);
+            if (terms == null || weights == null)
+                throw new NullPointerException("One or more arguments null");
+            int[] ids = new int[terms.length];
+            Term[] main = sortTerms(terms, weights, ids);
+            myPrecision = precision;
+            myState = new State(main, ids, maxIndex(main, precision), null, new ConcurrentSkipListMap<String, Term>());
+        }
+
+        /**
+         * Adds term with the given weight, or changes its weight if it is
+         * already in the dictionary.
+         * 
+         * @throws NullPointerException
+         *             if term is null
+         * @throws IllegalArgumentException
+         *             if weight is negative
+         */
+        public synchronized void put(String term, double weight) {
+            myState.active.put(term, new Term(term, weight));
+            maybeCompact();
+        }
+
+        /**
+         * Removes term from the dictionary. Does nothing if it is not there.
+         */
+        public synchronized void remove(String term) {
+            if (term == null)
+                throw new NullPointerException("Term is null.");
+            myState.active.put(term, TOMBSTONE);
+            maybeCompact();
+        }
+
+        /**
+         * Number of updates not yet merged into the main array.
+         */
+        public int pendingUpdates() {
+            State state = myState;
+            return state.active.size() + (state.flushing == null ? 0 : state.flushing.size());
+        }
+
+        /**
+         * Merges all pending updates into the main array on the calling thread,
+         * waiting for a background compaction to finish first.
+         */
+        public synchronized void compact() {
+            while (myState.flushing != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (myState.active.isEmpty())
+                return;
+            freeze();
+            merge();
+        }
+
+        private void maybeCompact() {
+            State state = myState;
+            if (state.flushing != null || state.active.size() < MIN_COMPACT_SIZE
+                    || state.active.size() < state.main.length / COMPACT_FRACTION)
+                return;
+            freeze();
+            // Compactions are rare and linear, so each gets its own thread and
+            // nothing is left running between them.
+            Thread compactor = new Thread(new Runnable() {
+                public void run() {
+                    merge();
+                }
+            }, "autocomplete-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+
+        /**
+         * Turns the active delta into the flushing one. Caller holds the lock.
+         */
+        private void freeze() {
+            State state = myState;
+            myState = new State(state.main, state.ids, state.maxIndex, state.active,
+                    new ConcurrentSkipListMap<String, Term>());
+        }
+
+        /**
+         * Merges the flushing delta into a new main array and publishes it.
+         * Both inputs are sorted, so this is a linear merge rather than a sort.
+         */
+        private void merge() {
+            State state = myState;
+            Term[] main = state.main;
+            ArrayList<Term> merged = new ArrayList<Term>(main.length + state.flushing.size());
+            int[] ids = new int[main.length + state.flushing.size()];
+            Iterator<Map.Entry<String, Term>> delta = state.flushing.entrySet().iterator();
+            Map.Entry<String, Term> d = delta.hasNext() ? delta.next() : null;
+            for (int i = 0; i < main.length; i++) {
+                Term t = main[i];
+                int cmp = 1;
+                while (d != null && (cmp = d.getKey().compareTo(t.getWord())) < 0) {
+                    if (d.getValue() != TOMBSTONE) {
+                        ids[merged.size()] = -1;
+                        merged.add(d.getValue());
+                    }
+                    d = delta.hasNext() ? delta.next() : null;
+                }
+                // Superseded by the delta. A weight change keeps the term's id.
+                if (d != null && cmp == 0) {
+                    if (d.getValue() != TOMBSTONE) {
+                        ids[merged.size()] = state.ids[i];
+                        merged.add(d.getValue());
+                    }
+                    d = delta.hasNext() ? delta.next() : null;
+                    continue;
+                }
+                ids[merged.size()] = state.ids[i];
+                merged.add(t);
+            }
+            for (; d != null; d = delta.hasNext() ? delta.next() : null) {
+                if (d.getValue() != TOMBSTONE) {
+                    ids[merged.size()] = -1;
+                    merged.add(d.getValue());
+                }
+            }
+            Term[] next = merged.toArray(new Term[0]);
+            int[] nextIds = Arrays.copyOf(ids, next.length);
+            RangeMaxIndex nextMaxIndex = maxIndex(next, myPrecision);
+            synchronized (this) {
+                myState = new State(next, nextIds, nextMaxIndex, null, myState.active);
+                notifyAll();
+            }
+        }
+
+        public Iterable<String> topMatches(String prefix, int k) {
+            return topMatches(prefix, k, MatchFilter.NONE);
+        }
+
+        /**
+         * The results are lazy, like BinarySearchAutocomplete's. Each
+         * iterator reads the State current when it is created, so updates
+         * made while it is being read do not show up in it.
+         */
+        public Iterable<String> topMatches(final String prefix, final int k, final MatchFilter filter) {
+            if (prefix == null || filter == null) throw new NullPointerException();
+            if (k < 0)
+                throw new IllegalArgumentException("Illegal value of k:"+k);
+            return new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new DeltaMergeIterator(myState, prefix, k, filter);
+                }
+            };
+        }
+
+        /**
+         * Yields the matches of prefix in one State in descending weight
+         * order, at most k of them: those of the main array, read through a
+         * RangeMaxIndex.Cursor less the words the deltas override, merged with the
+         * deltas' own terms. The delta entries under prefix are copied when
+         * the iterator is created, which costs nothing when there are none.
+         */
+        private static class DeltaMergeIterator implements Iterator<String> {
+            private final State state;
+            private final MatchFilter filter;
+            private final RangeMaxIndex.Cursor main;
+
+            /**
+             * Sorted words the deltas hold under prefix, tombstones included,
+             * and the terms among them that pass the filter, first in result
+             * order at the head.
+             */
+            private final String[] overridden;
+            private final PriorityQueue<Term> delta;
+
+            /**
+             * The next main-array term that passes the filter, or null.
+             */
+            private Term nextMain;
+            private int remaining;
+            private String pending;
+
+            DeltaMergeIterator(State state, String prefix, int k, MatchFilter filter) {
+                this.state = state;
+                this.filter = filter;
+                remaining = k;
+                Term key = new Term(prefix, 0);
+                Term.PrefixOrder order = new Term.PrefixOrder(prefix.length());
+                int f = firstIndexOf(state.main, key, order);
+                int l = lastIndexOf(state.main, key, order);
+                main = l < 0 || k == 0 ? null : state.maxIndex.cursor(f, l, filter.getMinWeight());
+                ArrayList<Map.Entry<String, Term>> found = null;
+                for (ConcurrentSkipListMap<String, Term> map : Arrays.asList(state.active, state.flushing)) {
+                    if (map == null)
+                        continue;
+                    for (Map.Entry<String, Term> e : map.tailMap(prefix).entrySet()) {
+                        if (!e.getKey().startsWith(prefix))
+                            break;
+                        if (found == null)
+                            found = new ArrayList<Map.Entry<String, Term>>();
+                        found.add(e);
+                    }
+                }
+                if (found == null) {
+                    overridden = new String[0];
+                    delta = null;
+                } else {
+                    // The sort is stable, so of two entries for a word the
+                    // active one, which was added first, is kept.
+                    Collections.sort(found, new Comparator<Map.Entry<String, Term>>() {
+                        public int compare(Map.Entry<String, Term> a, Map.Entry<String, Term> b) {
+                            return a.getKey().compareTo(b.getKey());
+                        }
+                    });
+                    ArrayList<String> words = new ArrayList<String>(found.size());
+                    delta = new PriorityQueue<Term>(found.size(), new Term.ReverseWeightOrder());
+                    for (Map.Entry<String, Term> e : found) {
+                        if (!words.isEmpty() && words.get(words.size() - 1).equals(e.getKey()))
+                            continue;
+                        words.add(e.getKey());
+                        Term t = e.getValue();
+                        if (t != TOMBSTONE && filter.accepts(filter.usesIds() ? idOf(state, t.getWord()) : -1,
+                                t.getWord(), t.getWeight()))
+                            delta.add(t);
+                    }
+                    overridden = words.toArray(new String[0]);
+                }
+                nextMain = advanceMain();
+            }
+
+            public boolean hasNext() {
+                if (pending == null && remaining > 0)
+                    pending = advance();
+                return pending != null;
+            }
+
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                String word = pending;
+                pending = null;
+                remaining--;
+                return word;
+            }
+
+            /**
+             * Returns the heavier of the next main-array and delta terms, or
+             * null if both are used up.
+             */
+            private String advance() {
+                Term d = delta == null ? null : delta.peek();
+                if (nextMain != null && (d == null || delta.comparator().compare(nextMain, d) < 0)) {
+                    Term t = nextMain;
+                    nextMain = advanceMain();
+                    return t.getWord();
+                }
+                return d == null ? null : delta.poll().getWord();
+            }
+
+            private Term advanceMain() {
+                if (main == null)
+                    return null;
+                for (int i = main.next(); i >= 0; i = main.next()) {
+                    Term t = state.main[i];
+                    if (overridden.length > 0 && Arrays.binarySearch(overridden, t.getWord()) >= 0)
+                        continue;
+                    if (filter.acceptsId(state.ids[i]) && filter.acceptsWord(t.getWord()))
+                        return t;
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Returns the id of word in the main array, or -1 if it has none.
+         */
+        private static int idOf(State state, String word) {
+            int i = Arrays.binarySearch(state.main, new Term(word, 0));
+            return i < 0 ? -1 : state.ids[i];
+        }
+
+        public String topMatch(String prefix) {
+            Iterator<String> it = topMatches(prefix, 1).iterator();
+            return it.hasNext() ? it.next() : "";
+        }
+
+        public double weightOf(String term) {
+            Term t = lookUp(term);
+            return t == null ? 0.0 : t.getWeight();
+        }
+
+        /**
+         * Whether term is in the dictionary, whatever its weight. weightOf()
+         * cannot tell a missing term from one of weight 0.
+         */
+        public boolean contains(String term) {
+            return lookUp(term) != null;
+        }
+
+        /**
+         * Returns the current Term for term, newest delta first, or null if
+         * it is not in the dictionary.
+         */
+        private Term lookUp(String term) {
+            if (term == null)
+                throw new NullPointerException("Term is null.");
+            State state = myState;
+            Term t = state.active.get(term);
+            if (t == null && state.flushing != null)
+                t = state.flushing.get(term);
+            if (t == null) {
+                int i = Arrays.binarySearch(state.main, new Term(term, 0));
+                if (i >= 0)
+                    t = state.main[i];
+            }
+            return t == TOMBSTONE ? null : t;
+        }
+
+        /**
+         * Counts the current State: the main array as BinarySearchAutocomplete
+         * counts its own, plus the delta maps. A skip list entry is a node
+         * plus, on average, half an index node.
+         */
+        @Override
+        public void measure(MemoryFootprint footprint) {
+            State state = myState;
+            footprint.addArray("arrays", state.main);
+            for (Term t : state.main)
+                footprint.addTerm("terms", "strings", t);
+            footprint.addArray("arrays", state.ids);
+            footprint.addMeasurable(state.maxIndex);
+            long entry = MemoryFootprint.objectSize(3, 0, 0, 0, 0) * 3 / 2;
+            for (ConcurrentSkipListMap<String, Term> delta : Arrays.asList(state.flushing, state.active)) {
+                if (delta == null)
+                    continue;
+                for (Map.Entry<String, Term> e : delta.entrySet()) {
+                    footprint.add("pending updates", entry);
+                    footprint.addString("strings", e.getKey());
+                    footprint.addTerm("terms", "strings", e.getValue());
+                }
+            }
+        }
+    }
+
     // ---------------------------------------------------------------------------------------------------------------
     // ------------------------------------------- MY CODE HERE ------------------------------------------------------
     // ---------------------------------------------------------------------------------------------------------------
@@ -291,13 +1150,25 @@ public class Autocomplete {
      * @author Jeff Forbes
      * @author Paul Chong
      */
-    public static class TrieAutocomplete implements Autocompletor {
+    public static class TrieAutocomplete implements Autocompletor, MemoryFootprint.Measurable {
 
         /**
          * Root of entire trie
          */
         protected Node myRoot;
 
+        /**
+         * Shared term storage if the trie was built from a TermDictionary, in
+         * which case word nodes hold ids instead of Strings. Otherwise null.
+         */
+        TermDictionary myDictionary;
+
+        /**
+         * Per-word timestamps and locales for personalised queries, or null
+         * until setWordContext() is called.
+         */
+        private volatile WordContext myContext;
+
         /**
          * Constructor method for TrieAutocomplete. Should initialize the trie
          * rooted at myRoot, as well as add all nodes necessary to represent the
@@ -319,14 +1190,52 @@ public class Autocomplete {
             myRoot = new Node('-', null, 0);
 
             for (int i = 0; i < terms.length; i++) {
-                add(terms[i], weights[i]);
+                add(terms[i], weights[i]).myWordId = i;
+            }
+            rankWords();
+        }
+
+        /**
+         * Builds the trie over a shared TermDictionary. Word nodes keep the
+         * term id rather than a String, and words are materialised from the
+         * dictionary only when returned.
+         *
+         * @param dictionary
+         *            - The terms and weights to autocomplete from
+         * @throws NullPointerException
+         *             if dictionary is null
+         */
+        public TrieAutocomplete(TermDictionary dictionary) {
+            if (dictionary == null)
+                throw new NullPointerException("Dictionary is null.");
+            myDictionary = dictionary;
+            myRoot = new Node('-', null, 0);
+            for (int id = 0; id < dictionary.size(); id++) {
+                Node node = insert(dictionary.view(id), dictionary.weight(id));
+                node.myWordId = id;
             }
+            rankWords();
         }
 
         /**
-         * Add the word with given weight to the trie. If word already exists in the
-         * trie, no new nodes should be created, but the weight of word should be
-         * updated.
+         * Wraps an already built trie, e.g. one read back by TrieSnapshot. Every
+         * word's myTieRank and every node's myBestWord and mySubtreeMaxWeight
+         * must be up to date.
+         *
+         * @param root
+         *            - The root of the trie
+         * @throws NullPointerException
+         *             if root is null
+         */
+        TrieAutocomplete(Node root) {
+            if (root == null)
+                throw new NullPointerException("Root is null.");
+            myRoot = root;
+        }
+
+        /**
+         * Add the word with given weight to the trie. Each word may only be
+         * added once; a word that is already in the trie is rejected.
          *
          * In adding a word, this method should do the following: Create any
          * necessary intermediate nodes if they do not exist. Update the
@@ -337,11 +1246,13 @@ public class Autocomplete {
          *
          * @throws a
          *             NullPointerException if word is null
+         * @return the node representing word
          * @throws an
-         *             IllegalArgumentException if weight is negative.
+         *             IllegalArgumentException if weight is negative, or if word
+         *             is already in the trie.
          */
         @SuppressWarnings("JavadocReference")
-        private void add(String word, double weight) {
+        private Node add(String word, double weight) {
             // NullPointerException if word is null.
             if (word == null)
                 throw new NullPointerException("Word is null.");
@@ -351,46 +1262,86 @@ public class Autocomplete {
                 throw new IllegalArgumentException("Weight is negative.");
             }
 
-            // New node that currently points to the root node.
-            Node node = myRoot;
+            Node node = insert(word, weight);
 
-            // Loop that iterates through the word, compares and updates weights
-            // for all nodes,and creates necessary intermediate nodes.
-            // https://www.geeksforgeeks.org/java-string-tochararray-example/
-            // https://stackoverflow.com/questions/196830/what-is-the-easiest-best-most-correct-way-to-iterate-through-the-characters-of-a
-            //       I used the answer by Dave Cheney and jjnguy.
-            for (char character : word.toCharArray()) {
+            // Sets myWord.
+            node.setWord(word);
+            return node;
+        }
 
-                // Check if mySubtreeMaxWeight needs to be updated.
-                if (node.mySubtreeMaxWeight < weight) {
+        /**
+         * Creates the path for word, sets the weight of its last node and
+         * updates the weights and best words above it. Returns the last node;
+         * the caller records the word itself.
+         */
+        private Node insert(CharSequence word, double weight) {
+            // New node that currently points to the root node.
+            Node node = myRoot;
 
-                    // Updates mySubtreeMaxWeight
-                    node.mySubtreeMaxWeight = weight;
-                }
+            // Loop that iterates through the word and creates necessary
+            // intermediate nodes.
+            for (int i = 0; i < word.length(); i++) {
+                char character = word.charAt(i);
 
                 // If the necessary intermediate node does not exist, create it.
-                // https://stackoverflow.com/questions/14601016/is-using-java-map-containskey-redundant-when-using-map-get
-                //      I used the answer by Vineeth Chitteti and Evgeniy Dorofeev
-                if (!node.children.containsKey(character)) {
+                Node child = node.getChild(character);
+                if (child == null) {
 
                     // Creation
-                    Node child = new Node(character, node, weight);
+                    child = new Node(character, node, weight);
 
                     // Put child into children
-                    node.children.put(character, child);
+                    node.putChild(character, child);
 
                 // Set again for looping.
-                } node = node.getChild(character);
+                } node = child;
             }
 
-            // Sets myWord.
-            node.setWord(word);
+            if (node.isWord)
+                throw new IllegalArgumentException("Duplicate input terms");
 
             // Sets myWeight.
             node.setWeight(weight);
 
             // Sets isWord.
             node.isWord = true;
+
+            // Walk back up to the root, updating each node's heaviest
+            // completion and mySubtreeMaxWeight. Children are always fixed
+            // before their parent, so a node that has to be recomputed (because
+            // its best word just got lighter) can rely on its children.
+            for (Node n = node; n != null; n = n.parent) {
+                if (!n.offerBestWord(node))
+                    break;
+            }
+            return node;
+        }
+
+        /**
+         * Numbers the words in lexicographic order, which is the order a
+         * pre-order walk with children in label order meets them in, and then
+         * recomputes the best words bottom-up so that ties between equal
+         * weights are settled by those ranks. Reverse pre-order visits every
+         * node after all of its descendants.
+         */
+        private void rankWords() {
+            ArrayList<Node> order = new ArrayList<Node>();
+            int rank = 0;
+            for (Node node : TrieTraversal.depthFirst(myRoot)) {
+                order.add(node);
+                if (node.isWord)
+                    node.myTieRank = rank++;
+            }
+            for (int i = order.size() - 1; i >= 0; i--)
+                order.get(i).recomputeBestWord();
+        }
+
+        /**
+         * Returns the word ending at node, materialising it from the
+         * dictionary if the trie holds term ids.
+         */
+        String wordOf(Node node) {
+            return node.myWord != null ? node.myWord : myDictionary.term(node.myWordId);
         }
 
         /**
@@ -415,71 +1366,141 @@ public class Autocomplete {
          */
         @SuppressWarnings("JavadocReference")
         public Iterable<String> topMatches(String prefix, int k) {
+            return topMatches(prefix, k, MatchFilter.NONE);
+        }
 
-            // NullPointerException if prefix is null.
-            if (prefix == null) {
-                throw new NullPointerException("Prefix is null.");
+        /**
+         * Like topMatches(prefix, k), but only returns words that pass filter.
+         * Subtries whose mySubtreeMaxWeight is below the filter's minimum weight
+         * are never queued, and words are checked as they are found.
+         */
+        public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter) {
+
+            // NullPointerException if prefix or filter is null.
+            if (prefix == null || filter == null) {
+                throw new NullPointerException("One or more arguments null");
             }
 
+            // IllegalArgumentException if k is negative.
+            if (k < 0)
+                throw new IllegalArgumentException("Illegal value of k:" + k);
+
             // New node that currently points to the root node.
             Node node = myRoot;
 
-            // --- PDF INSTRUCTIONS ---
-            // To find the top k matches as quickly as possible, we will use what is known as a search
-            // algorithm - keep a PriorityQueue of Nodes, sorted by mySubtreeMaxWeight. Start with
-            // just the root in the PriorityQueue, and pop Nodes off the PriorityQueue one by one.
-            PriorityQueue<Node> nodeList = new PriorityQueue<>(new Node.ReverseSubtreeMaxWeightComparator());
-
-            // https://stackoverflow.com/questions/12321177/arraylist-or-list-declaration-in-java
-            //      I used kosa's answer.
-            List<String> wordsList = new ArrayList<>();
-
             // Loop to see if any top k matches
             for (char character : prefix.toCharArray()){
 
-                // Check for match in the children Map<>.
-                if (node.children.containsKey(character)) {
-
-                    // Get node if matched.
-                    node = node.getChild(character);
+                // Check for match in the children.
+                node = node.getChild(character);
 
-                } else {
+                // Return an empty iterable if none matched.
+                if (node == null)
+                    return new ArrayList<String>();
+            }
 
-                    // Return an empty iterable if none matched.
-                    return wordsList;
+            // The search itself runs lazily, one word per call to next().
+            final Node start = node;
+            return new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new TrieMatchIterator(start, k, filter);
                 }
-            // Add the node to the priority queue.
-            } nodeList.add(node);
+            };
+        }
 
-            // Check if list of words and nodes are nonempty
-            while (nodeList.size() > 0 && ifWordsListValid(wordsList, k)){
+        /**
+         * Best-first search below start that yields at most k words in
+         * descending weight order, doing only as much work as needed for the
+         * words actually requested.
+         */
+        private class TrieMatchIterator implements Iterator<String> {
 
-                // https://docs.oracle.com/javase/7/docs/api/java/util/PriorityQueue.html
-                // Retrieves and removes the head of this queue, or returns null if this queue is empty.
-                // Pop off nodes one by one.
-                node = nodeList.poll();
+            private final Node start;
+            private final MatchFilter filter;
 
-                // Whenever a visited node is a word -->
-                assert node != null;
+            // --- PDF INSTRUCTIONS ---
+            // To find the top k matches as quickly as possible, we will use what is known as a search
+            // algorithm - keep a PriorityQueue of Nodes, sorted by mySubtreeMaxWeight. Start with
+            // just the root in the PriorityQueue, and pop Nodes off the PriorityQueue one by one.
+            private final PriorityQueue<Node> nodeList = new PriorityQueue<>(new Node.ReverseSubtreeMaxWeightComparator());
 
-                // --> add it to a weight-sorted list of words.
-                if (node.isWord){
-                    wordsList.add(node.myWord);
+            // Words are only emitted once no node left in the queue can hold one
+            // that comes first, so they come out in result order even though
+            // nodes are popped by their subtree maximum. Both queues break
+            // weight ties by myTieRank, i.e. lexicographically.
+            private final PriorityQueue<Node> words = new PriorityQueue<>(Collections.reverseOrder());
 
-                    // Check and break so that size doesn't exceed maximum words.
-                    if (wordsList.size() >= k)
-                        break;
+            private int remaining;
 
-                // We will add all its children to the PriorityQueue.
-                } nodeList.addAll(node.children.values());
+            TrieMatchIterator(Node start, int k, MatchFilter filter) {
+                this.start = start;
+                this.filter = filter;
+                this.remaining = k;
+                push(start);
+            }
 
-            // Return the list of correctly weighted-sorted words.
-            } return wordsList;
-        }
+            /**
+             * Queues node unless its whole subtrie is too light for the filter.
+             */
+            private void push(Node node) {
+                if (filter.acceptsWeight(node.mySubtreeMaxWeight))
+                    nodeList.add(node);
+            }
+
+            private boolean accepts(Node word) {
+                return filter.acceptsWeight(word.myWeight) && filter.acceptsId(word.myWordId)
+                        && (!filter.hasPredicate() || filter.acceptsWord(wordOf(word)));
+            }
+
+            public boolean hasNext() {
+                return remaining > 0 && advance();
+            }
+
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                remaining--;
+                return wordOf(words.poll());
+            }
 
-        boolean ifWordsListValid(List<String> list, int k) {
-            return list.size() <= k;
+            /**
+             * Expands nodes until the best candidate word can no longer be
+             * beaten by anything still queued. Returns false if the subtrie
+             * is exhausted.
+             */
+            private boolean advance() {
+                while (nodeList.size() > 0) {
+
+                    // The best word is final if no subtree still in the queue can beat it.
+                    if (words.size() > 0 && Node.precedes(words.peek(), nodeList.peek().getBestWord()))
+                        return true;
+
+                    // https://docs.oracle.com/javase/7/docs/api/java/util/PriorityQueue.html
+                    // Retrieves and removes the head of this queue, or returns null if this queue is empty.
+                    // Pop off nodes one by one.
+                    Node node = nodeList.poll();
+
+                    // Whenever a visited node is a word that passes the filter,
+                    // it becomes a candidate.
+                    if (node.isWord && accepts(node))
+                        words.add(node);
+
+                    // Children are pre-sorted by weight, so only the heaviest child
+                    // and the next lighter sibling need to be queued; each sibling
+                    // is queued when the one before it is popped.
+                    Node child = node.firstChildByWeight();
+                    if (child != null)
+                        push(child);
+                    if (node != start) {
+                        Node sibling = node.nextSiblingByWeight();
+                        if (sibling != null)
+                            push(sibling);
+                    }
+                }
+                return words.size() > 0;
+            }
         }
+
         /**
          * Given a prefix, returns the largest-weight word in the trie starting with
          * that prefix.
@@ -503,41 +1524,17 @@ public class Autocomplete {
 
             // Locate the word that starts with the prefix
             for (char i : prefix.toCharArray()) {
-                if (node.children.containsKey(i)) {
-                    node = node.getChild(i);
+                node = node.getChild(i);
 
                 // This handles the edge case where one character or " " is submitted.
-                } else {
+                if (node == null)
                   return "";
-                }
             }
 
-            // Holds the value for the largest word's weight starting
-            // with prefix.
-            double largestWordWeight = node.mySubtreeMaxWeight;
-
-            // If the word found in the loop holds the largest weight of the
-            // tree, return it.
-            if (node.myWeight == largestWordWeight)
-                return node.myWord;
-
-
-            // Keep searching through all the children in the tree if not and
-            // set the node / break out of the loop if found.
-            while(node.myWeight != largestWordWeight){
-
-                // https://stackoverflow.com/questions/16246821/how-to-get-values-and-keys-from-hashmap
-                //      I used Bohemian's answer.
-                for (Node child : node.children.values())
-                    if(child.mySubtreeMaxWeight == largestWordWeight){
-
-                        // Make node the largest.
-                        node = child;
-                        break;
-                    }
-
-            // Return the word that is set o
-            } return node.myWord;
+            // Every node keeps a pointer to the heaviest word in its subtree,
+            // so no further descent is needed.
+            Node best = node.getBestWord();
+            return best == null ? "" : wordOf(best);
         }
 
         /**
@@ -552,19 +1549,368 @@ public class Autocomplete {
             // Standard loop to iterate through the term.
             for (char character : term.toCharArray()) {
 
-                // Check to see if term exists in the children Map<>.
-                if (node.children.containsKey(character)) {
-
-                    // Set term if matched.
-                    node = node.getChild(character);
+                // Check to see if term exists in the children.
+                node = node.getChild(character);
 
                 // Return 0.0 if the term does not exist.
-                } else {
+                if (node == null)
                     return 0.0;
+
+            // A prefix of other words is not itself a term.
+            } return node.isWord ? node.myWeight : 0.0;
+        }
+
+        /**
+         * Per-word data set by setWordContext(), indexed by tie rank. The words
+         * of a subtrie have consecutive tie ranks, so a subtrie's data is one
+         * range of these arrays: its latest timestamp is a range maximum, and
+         * whether it holds a word of some locale is a binary search in that
+         * locale's sorted ranks.
+         */
+        private static class WordContext {
+            final double[] times;
+            final RangeMaxIndex latest;
+            final int[] locales;
+            final int[][] ranksByLocale;
+
+            WordContext(double[] times, int[] locales) {
+                this.times = times;
+                this.latest = times == null ? null : new RangeMaxIndex(times);
+                this.locales = locales;
+                if (locales == null) {
+                    ranksByLocale = null;
+                    return;
+                }
+                int[] counts = new int[0];
+                for (int locale : locales) {
+                    if (locale >= counts.length)
+                        counts = Arrays.copyOf(counts, locale + 1);
+                    counts[locale]++;
+                }
+                ranksByLocale = new int[counts.length][];
+                for (int l = 0; l < counts.length; l++)
+                    ranksByLocale[l] = new int[counts[l]];
+                Arrays.fill(counts, 0);
+                for (int rank = 0; rank < locales.length; rank++)
+                    ranksByLocale[locales[rank]][counts[locales[rank]]++] = rank;
+            }
+        }
+
+        /**
+         * Sets the timestamps and locales that ScoreBoost's recency decay and
+         * locale factors use, replacing any set before. Both are indexed by
+         * term id, i.e. the position in the constructor's arrays or the
+         * TermDictionary; either may be null. Locales are small non-negative
+         * numbers.
+         *
+         * @throws IllegalArgumentException
+         *             if an array has no entry for some term id, or a locale is
+         *             negative
+         */
+        public void setWordContext(long[] timestamps, int[] locales) {
+            int count = 0;
+            for (Node node : TrieTraversal.depthFirst(myRoot))
+                if (node.isWord)
+                    count++;
+            double[] times = timestamps == null ? null : new double[count];
+            int[] localesByRank = locales == null ? null : new int[count];
+            for (Node node : TrieTraversal.depthFirst(myRoot)) {
+                if (!node.isWord)
+                    continue;
+                int id = node.myWordId;
+                if ((timestamps != null && (id < 0 || id >= timestamps.length))
+                        || (locales != null && (id < 0 || id >= locales.length)))
+                    throw new IllegalArgumentException("No context for term id " + id);
+                if (times != null)
+                    times[node.myTieRank] = timestamps[id];
+                if (localesByRank != null) {
+                    if (locales[id] < 0)
+                        throw new IllegalArgumentException("Negative locale " + locales[id]);
+                    localesByRank[node.myTieRank] = locales[id];
+                }
+            }
+            myContext = new WordContext(times, localesByRank);
+        }
+
+        /**
+         * Returns the k best words starting with prefix that pass filter, where
+         * a word's score is its weight adjusted by boost, in descending score
+         * order with ties in lexicographic order. The filter's minimum weight
+         * applies to the scores.
+         *
+         * The search is best-first like topMatches(), but over per-request upper
+         * bounds: a subtrie's bound is its mySubtreeMaxWeight times the largest
+         * value each of boost's factors takes on its words (the decay of its
+         * latest timestamp, the history factor if it holds a history word, the
+         * largest factor among its locales). No subtrie is expanded before its
+         * bound says it could hold the next result, so pruning stays exact
+         * without scanning whole subtries. See BoostedMatchIterator.
+         *
+         * @throws NullPointerException
+         *             if any argument is null
+         * @throws IllegalStateException
+         *             if boost decays with age or weights locales but
+         *             setWordContext() has not supplied timestamps or locales
+         */
+        public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter, final ScoreBoost boost) {
+            if (prefix == null || filter == null || boost == null)
+                throw new NullPointerException("One or more arguments null");
+            if (k < 0)
+                throw new IllegalArgumentException("Illegal value of k:"+k);
+            if (boost.isNone())
+                return topMatches(prefix, k, filter);
+            final WordContext context = myContext;
+            if (boost.hasRecency() && (context == null || context.times == null))
+                throw new IllegalStateException("No word timestamps; call setWordContext() first");
+            if (boost.hasLocales() && (context == null || context.locales == null))
+                throw new IllegalStateException("No word locales; call setWordContext() first");
+            final Node start = locate(prefix);
+            if (start == null)
+                return new ArrayList<String>();
+
+            // Only history words below start can be returned.
+            int[] ranks = new int[boost.getHistory().size()];
+            int count = 0;
+            if (boost.hasHistory()) {
+                for (String word : boost.getHistory()) {
+                    Node node = word.startsWith(prefix) ? locate(word) : null;
+                    if (node != null && node.isWord)
+                        ranks[count++] = node.myTieRank;
+                }
+            }
+            final int[] historyRanks = Arrays.copyOf(ranks, count);
+            Arrays.sort(historyRanks);
+            return new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new BoostedMatchIterator(start, k, filter, boost, context, historyRanks);
+                }
+            };
+        }
+
+        /**
+         * Returns the node for prefix, or null if no word starts with it.
+         */
+        private Node locate(String prefix) {
+            Node node = myRoot;
+            for (int i = 0; i < prefix.length() && node != null; i++)
+                node = node.getChild(prefix.charAt(i));
+            return node;
+        }
+
+        /**
+         * Best-first search below start by boosted score. One queue holds both
+         * subtries, keyed by a bound and their lowest tie rank, and scored
+         * words, keyed by their score and tie rank. A word at the head of the
+         * queue comes before everything still queued, so it is returned at
+         * once.
+         *
+         * Subtries are first queued with a cheap bound, their own
+         * mySubtreeMaxWeight times the factor bounds of the whole of start's
+         * subtrie. That orders siblings like Node.myByWeight, so as in
+         * TrieMatchIterator only the first child is queued and each sibling
+         * when the one before it comes up. A subtrie that reaches the head
+         * with its cheap bound is queued again with its own, tighter bound,
+         * and only expanded when it reaches the head with that.
+         */
+        private class BoostedMatchIterator implements Iterator<String> {
+
+            private static final int SUBTRIE = 0;
+            private static final int REFINED = 1;
+            private static final int WORD = 2;
+
+            /**
+             * A subtrie with its cheap or refined bound, or a word with its
+             * score.
+             */
+            private class Entry {
+                final Node node;
+                final int kind;
+                final double score;
+                final int rank;
+
+                Entry(Node node, int kind, double score, int rank) {
+                    this.node = node;
+                    this.kind = kind;
+                    this.score = score;
+                    this.rank = rank;
+                }
+            }
+
+            private final Node start;
+            private final MatchFilter filter;
+            private final ScoreBoost boost;
+            private final WordContext context;
+            private final int[] historyRanks;
+
+            /**
+             * Bounds of the three factors over start's subtrie.
+             */
+            private final double recency, history, locale;
+
+            private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>(new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    if (a.score != b.score)
+                        return a.score > b.score ? -1 : 1;
+                    return Integer.compare(a.rank, b.rank);
+                }
+            });
+            private int remaining;
+            private Node pending;
+
+            BoostedMatchIterator(Node start, int k, MatchFilter filter, ScoreBoost boost, WordContext context,
+                    int[] historyRanks) {
+                this.start = start;
+                this.filter = filter;
+                this.boost = boost;
+                this.context = context;
+                this.historyRanks = historyRanks;
+                this.remaining = k;
+                if (start.getBestWord() == null) {
+                    recency = history = locale = 0;
+                    return;
+                }
+                int lo = firstRank(start), hi = lastRank(start);
+                recency = recencyBound(lo, hi);
+                history = historyBound(lo, hi);
+                locale = localeBound(lo, hi);
+                push(start);
+            }
+
+            public boolean hasNext() {
+                if (pending == null && remaining > 0)
+                    pending = advance();
+                return pending != null;
+            }
+
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Node word = pending;
+                pending = null;
+                remaining--;
+                return wordOf(word);
+            }
+
+            /**
+             * Queues the subtrie at node with its cheap bound, unless that is
+             * too light for the filter.
+             */
+            private void push(Node node) {
+                double bound = combine(node.mySubtreeMaxWeight, recency, history, locale);
+                if (filter.acceptsWeight(bound))
+                    queue.add(new Entry(node, SUBTRIE, bound, firstRank(node)));
+            }
+
+            /**
+             * Returns the next word in score order that passes the filter, or
+             * null.
+             */
+            private Node advance() {
+                while (!queue.isEmpty()) {
+                    Entry entry = queue.poll();
+                    Node node = entry.node;
+                    if (entry.kind == WORD)
+                        return node;
+                    if (entry.kind == SUBTRIE) {
+                        // The next sibling's cheap bound is no higher than this one.
+                        if (node != start) {
+                            Node sibling = node.nextSiblingByWeight();
+                            if (sibling != null)
+                                push(sibling);
+                        }
+                        int lo = entry.rank, hi = lastRank(node);
+                        double bound = combine(node.mySubtreeMaxWeight, recencyBound(lo, hi), historyBound(lo, hi),
+                                localeBound(lo, hi));
+                        if (filter.acceptsWeight(bound))
+                            queue.add(new Entry(node, REFINED, bound, lo));
+                        continue;
+                    }
+                    if (node.isWord) {
+                        double score = score(node);
+                        if (filter.acceptsWeight(score) && filter.acceptsId(node.myWordId)
+                                && (!filter.hasPredicate() || filter.acceptsWord(wordOf(node))))
+                            queue.add(new Entry(node, WORD, score, node.myTieRank));
+                    }
+                    Node child = node.firstChildByWeight();
+                    if (child != null)
+                        push(child);
                 }
+                return null;
+            }
+
+            /**
+             * The boosted score of a word node.
+             */
+            private double score(Node word) {
+                int rank = word.myTieRank;
+                return combine(word.myWeight,
+                        boost.hasRecency() ? boost.recencyFactor(context.times[rank]) : 1,
+                        historyRanks.length > 0 && Arrays.binarySearch(historyRanks, rank) >= 0
+                                ? boost.getHistoryFactor() : 1,
+                        boost.hasLocales() ? boost.localeFactor(context.locales[rank]) : 1);
+            }
+
+            /**
+             * Scores, cheap bounds and refined bounds all multiply in this
+             * order, so rounding cannot lift a score above a bound.
+             */
+            private double combine(double weight, double recency, double history, double locale) {
+                return weight * recency * history * locale;
+            }
+
+            /**
+             * Bounds of the factors over the words with tie ranks lo..hi.
+             */
+            private double recencyBound(int lo, int hi) {
+                return boost.hasRecency() ? boost.recencyFactor(context.times[context.latest.argMax(lo, hi)]) : 1;
+            }
+
+            private double historyBound(int lo, int hi) {
+                if (historyRanks.length == 0 || !contains(historyRanks, lo, hi))
+                    return 1;
+                return Math.max(1, boost.getHistoryFactor());
+            }
+
+            private double localeBound(int lo, int hi) {
+                double factor = 1;
+                if (boost.hasLocales()) {
+                    for (int l = 0; l < boost.localeCount() && l < context.ranksByLocale.length; l++) {
+                        if (boost.localeFactor(l) > factor && contains(context.ranksByLocale[l], lo, hi))
+                            factor = boost.localeFactor(l);
+                    }
+                }
+                return factor;
+            }
+        }
+
+        /**
+         * Tie rank of the first word in pre-order below node, which has one.
+         */
+        private static int firstRank(Node node) {
+            while (!node.isWord)
+                node = node.childAt(0);
+            return node.myTieRank;
+        }
 
-            // If not 0.0, return here.
-            } return node.myWeight;
+        /**
+         * Tie rank of the last word in pre-order below node: its rightmost
+         * leaf, since every leaf ends a word.
+         */
+        private static int lastRank(Node node) {
+            while (node.childCount() > 0)
+                node = node.childAt(node.childCount() - 1);
+            return node.myTieRank;
+        }
+
+        /**
+         * Whether the sorted array ranks holds a value in [lo, hi].
+         */
+        private static boolean contains(int[] ranks, int lo, int hi) {
+            int i = Arrays.binarySearch(ranks, lo);
+            if (i >= 0)
+                return true;
+            i = -(i + 1);
+            return i < ranks.length && ranks[i] <= hi;
         }
 
         /**
@@ -583,6 +1929,30 @@ public class Autocomplete {
             return null;
         }
 
+        public void measure(MemoryFootprint footprint) {
+            long node = MemoryFootprint.objectSize(8, 2, 4, 1, 1);
+            for (Node n : TrieTraversal.depthFirst(myRoot)) {
+                footprint.add("nodes", node);
+                footprint.addString("node labels", n.myInfo);
+                footprint.addString("strings", n.myWord);
+                footprint.addArray("child arrays", n.myLabels);
+                footprint.addArray("child arrays", n.myChildren);
+                footprint.addArray("child tables", n.myTable);
+                footprint.addArray("child arrays", n.myByWeight);
+            }
+            footprint.addMeasurable(myDictionary);
+            WordContext context = myContext;
+            if (context != null) {
+                footprint.addArray("word context", context.times);
+                footprint.addMeasurable(context.latest);
+                footprint.addArray("word context", context.locales);
+                footprint.addArray("word context", context.ranksByLocale);
+                if (context.ranksByLocale != null)
+                    for (int[] ranks : context.ranksByLocale)
+                        footprint.addArray("word context", ranks);
+            }
+        }
+
 
     }
 }
@@ -0,0 +1,925 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Differential fuzzer for the engines. Each case generates a random
+ * dictionary and a batch of prefixes, builds every engine and
+ * BruteAutocomplete over it, and checks that all engines agree with Brute:
+ *
+ * - topMatches() returns the same sequence of terms for several k, also
+ * under MatchFilters on minimum weight, allowed and denied term ids and a
+ * predicate. Equal weights must come out in lexicographic order, as the
+ * Autocompletor contract asks, so the whole sequence is compared, not just
+ * its weights
+ * - topMatch() returns the same term
+ * - weightOf() matches for terms, their prefixes and absent words
+ * - a dictionary with duplicate terms is rejected with an
+ * IllegalArgumentException, as Brute does
+ *
+ * TokenAutocomplete and SuffixArrayAutocomplete answer a different
+ * question, so their expected results come from scanning the dictionary
+ * with a plain implementation of their matching rules instead.
+ *
+ * Besides the engines, each case runs these scenarios, each reported as a
+ * row of its own:
+ *
+ * - SNAPSHOT: a TrieAutocomplete written and read back by TrieSnapshot
+ * answers the probes like Brute, and writes the same file again
+ * - UPDATES: IncrementalBinarySearchAutocomplete under a random sequence of
+ * put(), remove(), compact() and queries matches a map of the current terms
+ * - BOOSTED: TrieAutocomplete's topMatches() with a ScoreBoost matches the
+ * boosted scores computed term by term
+ * - FEDERATED: FederatedAutocomplete over the dictionary split among a few
+ * sources matches the combined weights computed term by term
+ * - INGESTER: a QueryLogIngester tailing a log written in random pieces
+ * ends up like one given the same hits directly, and after every flush each
+ * term it no longer tracks has its original weight back
+ *
+ * Dictionaries mix ASCII, accented and CJK characters and surrogate pairs
+ * over small alphabets so that terms share prefixes, include the empty
+ * term, and draw weights from a few values so that ties are common. Every
+ * case has its own seed, printed with its failures, so a failure can be
+ * replayed with "java AutocompleteFuzzer <seed> 1".
+ *
+ * Build and query time is accumulated per engine and reported at the end;
+ * a scenario's time is all counted as query time.
+ *
+ * Usage: java AutocompleteFuzzer [seed [cases [engine or scenario ...]]]
+ */
+public class AutocompleteFuzzer {
+
+	/**
+	 * Engines from AutocompletorRegistry that match on prefixes.
+	 */
+	static final String[] PREFIX_ENGINES = { AutocompleteMain.PARALLEL_BRUTE_AUTOCOMPLETE,
+			AutocompleteMain.PACKED_BRUTE_AUTOCOMPLETE, AutocompleteMain.BINARY_SEARCH_AUTOCOMPLETE,
+			AutocompleteMain.INCREMENTAL_BINARY_SEARCH_AUTOCOMPLETE, AutocompleteMain.TRIE_AUTOCOMPLETE,
+			AutocompleteMain.UTF8_BINARY_SEARCH_AUTOCOMPLETE, AutocompleteMain.FRONT_CODED_AUTOCOMPLETE,
+			AutocompleteMain.ADAPTIVE_AUTOCOMPLETE };
+
+	/**
+	 * Engines from AutocompletorRegistry that match inside terms.
+	 */
+	static final String[] INFIX_ENGINES = { AutocompleteMain.TOKEN_AUTOCOMPLETE,
+			AutocompleteMain.SUFFIX_ARRAY_AUTOCOMPLETE };
+
+	static final String SNAPSHOT = "TrieSnapshot";
+	static final String UPDATES = "IncrementalBinarySearchAutocomplete updates";
+	static final String BOOSTED = "TrieAutocomplete with ScoreBoost";
+	static final String FEDERATED = "FederatedAutocomplete";
+	static final String INGESTER = "QueryLogIngester";
+
+	static final String[] SCENARIOS = { SNAPSHOT, UPDATES, BOOSTED, FEDERATED, INGESTER };
+
+	static final String[] ALPHABETS = { "ab", "abc ", "aAbB-", "e\u00e9\u00e8f", "\u4e2d\u6587a",
+			"a\ud83d\ude00\ud83d\ude01", "xy\uffff\ue000" };
+
+	static final int[] KS = { 0, 1, 2, 5, 1000 };
+	static final int MAX_FAILURES_SHOWN = 20;
+
+	/**
+	 * How an engine matches a query against a term.
+	 */
+	private static final int PREFIX = 0;
+	private static final int TOKENS = 1;
+	private static final int SUBSTRING = 2;
+
+	private static final Predicate<String> EVEN_LENGTH = new Predicate<String>() {
+		public boolean test(String word) {
+			return word.length() % 2 == 0;
+		}
+	};
+
+	private static final Predicate<String> NO_A = new Predicate<String>() {
+		public boolean test(String word) {
+			return word.indexOf('a') < 0;
+		}
+	};
+
+	private final String[] myEngines;
+	private final long[] myBuildNanos;
+	private final long[] myQueryNanos;
+	private final int[] myFailures;
+	private long myCaseSeed;
+	private int myShown;
+
+	public AutocompleteFuzzer(String[] engines) {
+		myEngines = engines.clone();
+		myBuildNanos = new long[engines.length];
+		myQueryNanos = new long[engines.length];
+		myFailures = new int[engines.length];
+	}
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int cases = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		String[] engines;
+		if (args.length > 2)
+			engines = Arrays.copyOfRange(args, 2, args.length);
+		else {
+			List<String> all = new ArrayList<String>(Arrays.asList(PREFIX_ENGINES));
+			all.addAll(Arrays.asList(INFIX_ENGINES));
+			all.addAll(Arrays.asList(SCENARIOS));
+			engines = all.toArray(new String[0]);
+		}
+		System.out.println("Fuzzing " + cases + " cases from seed " + seed);
+		AutocompleteFuzzer fuzzer = new AutocompleteFuzzer(engines);
+		int failures = fuzzer.run(seed, cases);
+		System.out.println(fuzzer.report());
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Runs cases cases, deriving each case's seed from seed, and returns the
+	 * number of failed checks.
+	 */
+	public int run(long seed, int cases) {
+		Random seeds = new Random(seed);
+		for (int c = 0; c < cases; c++)
+			runCase(cases == 1 ? seed : seeds.nextLong());
+		int total = 0;
+		for (int f : myFailures)
+			total += f;
+		return total;
+	}
+
+	private static int modeOf(String engine) {
+		if (engine.equals(AutocompleteMain.TOKEN_AUTOCOMPLETE))
+			return TOKENS;
+		if (engine.equals(AutocompleteMain.SUFFIX_ARRAY_AUTOCOMPLETE))
+			return SUBSTRING;
+		return PREFIX;
+	}
+
+	private void runCase(long caseSeed) {
+		myCaseSeed = caseSeed;
+		Random random = new Random(caseSeed);
+		String alphabet = ALPHABETS[random.nextInt(ALPHABETS.length)];
+		int size = random.nextInt(4) == 0 ? random.nextInt(2000) : random.nextInt(60);
+		LinkedHashMap<String, Double> generated = new LinkedHashMap<String, Double>();
+		double[] weightPool = { 0, 1, 1, 2, 3, 7.5, 1e6 };
+		boolean ties = random.nextBoolean();
+		for (int i = 0; i < size; i++) {
+			double w = ties ? weightPool[random.nextInt(weightPool.length)] : random.nextInt(1 << 20) / 16.0;
+			generated.put(randomWord(random, alphabet, 12), w);
+		}
+		String[] terms = generated.keySet().toArray(new String[0]);
+		double[] weights = new double[terms.length];
+		int j = 0;
+		for (double w : generated.values())
+			weights[j++] = w;
+		if (terms.length > 0 && random.nextInt(10) == 0) {
+			// append a duplicate term
+			terms = Arrays.copyOf(terms, terms.length + 1);
+			weights = Arrays.copyOf(weights, weights.length + 1);
+			terms[terms.length - 1] = terms[random.nextInt(terms.length - 1)];
+			weights[weights.length - 1] = 1;
+		}
+
+		Autocomplete.Autocompletor reference;
+		try {
+			reference = new Autocomplete.BruteAutocomplete(terms, weights);
+		} catch (IllegalArgumentException e) {
+			reference = null;
+		}
+
+		List<String> prefixes = new ArrayList<String>();
+		prefixes.add("");
+		for (int i = 0; i < 40; i++) {
+			if (terms.length > 0 && random.nextInt(4) != 0) {
+				String t = terms[random.nextInt(terms.length)];
+				int cut = random.nextInt(t.length() + 1);
+				prefixes.add(t.substring(0, cut));
+				if (random.nextInt(8) == 0)
+					prefixes.add(t + alphabet.charAt(random.nextInt(alphabet.length())));
+				// the middle of a term, for the engines that match there
+				if (random.nextInt(4) == 0)
+					prefixes.add(t.substring(cut, cut + random.nextInt(t.length() - cut + 1)));
+			} else
+				prefixes.add(randomWord(random, alphabet, 4));
+		}
+		List<Filter> filters = randomFilters(random, terms.length);
+		List<Probe> probes = new ArrayList<Probe>();
+		for (String prefix : prefixes) {
+			for (int k : KS)
+				probes.add(new Probe(TOP_MATCHES, prefix, k, null));
+			for (Filter filter : filters)
+				probes.add(new Probe(TOP_MATCHES, prefix, 5, filter));
+			probes.add(new Probe(TOP_MATCH, prefix, 0, null));
+			for (String word : new String[] { prefix, prefix + "\u0000", prefix + "zz" })
+				probes.add(new Probe(WEIGHT_OF, word, 0, null));
+		}
+		for (int i = 0; i < Math.min(terms.length, 100); i++)
+			probes.add(new Probe(WEIGHT_OF, terms[random.nextInt(terms.length)], 0, null));
+
+		HashMap<String, Double> dictionary = new HashMap<String, Double>();
+		if (reference != null) {
+			for (int i = 0; i < terms.length; i++)
+				dictionary.put(terms[i], weights[i]);
+		}
+
+		for (int e = 0; e < myEngines.length; e++) {
+			String name = myEngines[e];
+			// each scenario draws from its own stream, so a subset of rows
+			// replays the same case
+			Random scenario = new Random(caseSeed ^ name.hashCode());
+			if (!name.equals(SNAPSHOT) && Arrays.asList(SCENARIOS).contains(name)) {
+				if (reference == null)
+					continue;
+				long start = System.nanoTime();
+				if (name.equals(UPDATES))
+					checkUpdates(e, scenario, terms, weights, prefixes, filters, alphabet);
+				else if (name.equals(BOOSTED))
+					checkBoosted(e, scenario, terms, weights, prefixes, filters);
+				else if (name.equals(FEDERATED))
+					checkFederated(e, scenario, terms, weights, prefixes, filters, alphabet);
+				else
+					checkIngester(e, scenario, terms, weights, alphabet);
+				myQueryNanos[e] += System.nanoTime() - start;
+				continue;
+			}
+			Autocomplete.Autocompletor engine;
+			long start = System.nanoTime();
+			try {
+				engine = name.equals(SNAPSHOT) ? roundTrip(e, terms, weights)
+						: AutocompletorRegistry.create(name, terms, weights);
+			} catch (IllegalArgumentException ex) {
+				if (reference != null)
+					fail(e, "rejected a valid dictionary: " + ex.getMessage());
+				continue;
+			} finally {
+				myBuildNanos[e] += System.nanoTime() - start;
+			}
+			if (reference == null) {
+				fail(e, "accepted a dictionary with duplicate terms");
+				continue;
+			}
+			if (engine == null)
+				continue;
+			int mode = modeOf(name);
+			for (Probe probe : probes) {
+				probe.expect(reference, mode, terms, weights);
+				check(e, engine, probe, dictionary);
+			}
+		}
+	}
+
+	/**
+	 * A random word of up to maxLength chars from alphabet, never ending in
+	 * an unpaired high surrogate.
+	 */
+	private static String randomWord(Random random, String alphabet, int maxLength) {
+		int length = random.nextInt(maxLength + 1);
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			int i = random.nextInt(alphabet.length());
+			char c = alphabet.charAt(i);
+			if (Character.isLowSurrogate(c))
+				continue;
+			sb.append(c);
+			if (Character.isHighSurrogate(c))
+				sb.append(alphabet.charAt(i + 1));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A MatchFilter with a description for failure messages.
+	 */
+	private static class Filter {
+		final MatchFilter filter;
+		final String name;
+
+		Filter(MatchFilter filter, String name) {
+			this.filter = filter;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * One filter of each kind: minimum weight, allowed ids, denied ids with
+	 * a predicate, and minimum weight with a predicate. Ids are drawn from
+	 * [0, n).
+	 */
+	private static List<Filter> randomFilters(Random random, int n) {
+		BitSet allowed = new BitSet(), denied = new BitSet();
+		for (int i = 0; i < n; i++) {
+			if (random.nextBoolean())
+				allowed.set(i);
+			if (random.nextInt(4) == 0)
+				denied.set(i);
+		}
+		double min = random.nextInt(4);
+		List<Filter> filters = new ArrayList<Filter>();
+		filters.add(new Filter(MatchFilter.minWeight(min), "minWeight " + min));
+		filters.add(new Filter(new MatchFilter(min, allowed, null, null),
+				"minWeight " + min + ", " + allowed.cardinality() + " ids allowed"));
+		filters.add(new Filter(new MatchFilter(0, null, denied, EVEN_LENGTH),
+				denied.cardinality() + " ids denied, even length"));
+		filters.add(new Filter(new MatchFilter(min, null, null, NO_A), "minWeight " + min + ", no 'a'"));
+		return filters;
+	}
+
+	private static final int TOP_MATCHES = 0;
+	private static final int TOP_MATCH = 1;
+	private static final int WEIGHT_OF = 2;
+
+	/**
+	 * One call to make on every engine of a case, with the expected answer
+	 * for the match mode it was last computed for.
+	 */
+	private static class Probe {
+		final int kind;
+		final String text;
+		final int k;
+		final Filter filter;
+		int expectedMode = -1;
+		List<String> expectedMatches;
+		String expectedMatch;
+		double expectedWeight;
+
+		Probe(int kind, String text, int k, Filter filter) {
+			this.kind = kind;
+			this.text = text;
+			this.k = k;
+			this.filter = filter;
+		}
+
+		/**
+		 * Computes the expected answer for mode: Brute's for PREFIX, a scan
+		 * of terms and weights with matches() otherwise.
+		 */
+		void expect(Autocomplete.Autocompletor reference, int mode, String[] terms, double[] weights) {
+			if (mode == expectedMode)
+				return;
+			expectedMode = mode;
+			if (kind == WEIGHT_OF)
+				expectedWeight = reference.weightOf(text);
+			else if (mode == PREFIX) {
+				if (kind == TOP_MATCHES)
+					expectedMatches = matches(reference);
+				else
+					expectedMatch = reference.topMatch(text);
+			} else {
+				MatchFilter f = filter == null ? MatchFilter.NONE : filter.filter;
+				List<Term> found = new ArrayList<Term>();
+				for (int i = 0; i < terms.length; i++)
+					if (f.accepts(i, terms[i], weights[i]) && isMatch(mode, terms[i], text))
+						found.add(new Term(terms[i], weights[i]));
+				List<String> top = top(found, kind == TOP_MATCHES ? k : 1);
+				if (kind == TOP_MATCHES)
+					expectedMatches = top;
+				else
+					expectedMatch = top.isEmpty() ? "" : top.get(0);
+			}
+		}
+
+		List<String> matches(Autocomplete.Autocompletor engine) {
+			return list(filter == null ? engine.topMatches(text, k) : engine.topMatches(text, k, filter.filter));
+		}
+
+		@Override
+		public String toString() {
+			if (kind == TOP_MATCHES)
+				return "topMatches(" + quote(text) + ", " + k + (filter == null ? "" : ", " + filter.name) + ")";
+			return (kind == TOP_MATCH ? "topMatch(" : "weightOf(") + quote(text) + ")";
+		}
+	}
+
+	private static List<String> list(Iterable<String> matches) {
+		List<String> list = new ArrayList<String>();
+		for (String s : matches)
+			list.add(s);
+		return list;
+	}
+
+	/**
+	 * The words of the first k of matches in descending weight order, ties
+	 * in lexicographic order.
+	 */
+	private static List<String> top(List<Term> matches, int k) {
+		Collections.sort(matches, new Term.ReverseWeightOrder());
+		List<String> top = new ArrayList<String>();
+		for (int i = 0; i < Math.min(k, matches.size()); i++)
+			top.add(matches.get(i).getWord());
+		return top;
+	}
+
+	/**
+	 * Whether query matches term in mode, by the rules TokenAutocomplete and
+	 * SuffixArrayAutocomplete document, written out the slow way.
+	 */
+	static boolean isMatch(int mode, String term, String query) {
+		if (mode == PREFIX)
+			return term.startsWith(query);
+		if (mode == SUBSTRING)
+			return query.indexOf(SuffixArrayAutocomplete.SEPARATOR) < 0 && fold(term).contains(fold(query));
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i <= query.length(); i++) {
+			if (i < query.length() && Character.isLetterOrDigit(query.charAt(i)))
+				token.append(TermNormalizer.foldChar(query.charAt(i)));
+			else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if (tokens.isEmpty())
+			return query.isEmpty();
+		String folded = fold(term);
+		List<Integer> starts = new ArrayList<Integer>();
+		for (int p = 0; p < term.length(); p++)
+			if (p == 0 || (Character.isLetterOrDigit(term.charAt(p)) && !Character.isLetterOrDigit(term.charAt(p - 1))))
+				starts.add(p);
+		// a bipartite matching of query tokens to distinct token starts
+		int[] owner = new int[starts.size()];
+		Arrays.fill(owner, -1);
+		for (int t = 0; t < tokens.size(); t++)
+			if (!augment(t, tokens, folded, starts, owner, new boolean[starts.size()]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Finds query token t a term token start, moving the tokens that hold
+	 * starts it fits along augmenting paths.
+	 */
+	private static boolean augment(int t, List<String> tokens, String folded, List<Integer> starts, int[] owner,
+			boolean[] visited) {
+		for (int s = 0; s < starts.size(); s++) {
+			if (visited[s] || !folded.startsWith(tokens.get(t), starts.get(s)))
+				continue;
+			visited[s] = true;
+			if (owner[s] < 0 || augment(owner[s], tokens, folded, starts, owner, visited)) {
+				owner[s] = t;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Folds s char by char, keeping its length.
+	 */
+	private static String fold(String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = TermNormalizer.foldChar(chars[i]);
+		return new String(chars);
+	}
+
+	/**
+	 * Makes probe's call on engine, timing only the call (and the
+	 * iteration of its results), and checks the answer.
+	 */
+	private void check(int e, Autocomplete.Autocompletor engine, Probe probe, HashMap<String, Double> dictionary) {
+		long start = System.nanoTime();
+		List<String> matches = null;
+		String match = null;
+		double weight = 0;
+		if (probe.kind == TOP_MATCHES)
+			matches = probe.matches(engine);
+		else if (probe.kind == TOP_MATCH)
+			match = engine.topMatch(probe.text);
+		else
+			weight = engine.weightOf(probe.text);
+		myQueryNanos[e] += System.nanoTime() - start;
+
+		if (probe.kind == TOP_MATCHES) {
+			if (!probe.expectedMatches.equals(matches))
+				fail(e, probe + " expected " + describe(probe.expectedMatches, dictionary) + " got "
+						+ describe(matches, dictionary));
+		} else if (probe.kind == TOP_MATCH) {
+			if (!probe.expectedMatch.equals(match))
+				fail(e, probe + " expected " + quote(probe.expectedMatch) + " got " + quote(match));
+		} else if (weight != probe.expectedWeight)
+			fail(e, probe + " expected " + probe.expectedWeight + " got " + weight);
+	}
+
+	/**
+	 * Builds a TrieAutocomplete, writes it with TrieSnapshot and returns the
+	 * trie read back, checking that writing that one gives the same file.
+	 * Returns null if the snapshot could not be written or read.
+	 */
+	private Autocomplete.Autocompletor roundTrip(int e, String[] terms, double[] weights) {
+		Autocomplete.TrieAutocomplete trie = new Autocomplete.TrieAutocomplete(terms, weights);
+		Path first = null, second = null;
+		try {
+			first = Files.createTempFile("fuzz", ".snap");
+			second = Files.createTempFile("fuzz", ".snap");
+			TrieSnapshot.write(trie, first);
+			Autocomplete.TrieAutocomplete loaded = TrieSnapshot.read(first);
+			TrieSnapshot.write(loaded, second);
+			if (!Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second)))
+				fail(e, "a loaded snapshot does not write the same file");
+			return loaded;
+		} catch (IOException ex) {
+			fail(e, "round trip failed: " + ex);
+			return null;
+		} finally {
+			delete(first);
+			delete(second);
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			if (file != null)
+				Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// only a temporary file left behind
+		}
+	}
+
+	/**
+	 * Applies random put(), remove() and compact() calls to an
+	 * IncrementalBinarySearchAutocomplete and checks its queries against a
+	 * map of the terms it should hold.
+	 *
+	 * A term keeps its id while it is in the main array, even if removed
+	 * and put back before the next compaction; a compaction drops the ids of
+	 * terms that are gone, and terms put afterwards have none. Fewer than
+	 * MIN_COMPACT_SIZE updates are made, so compactions only happen when
+	 * asked for and the ids stay predictable.
+	 */
+	private void checkUpdates(int e, Random random, String[] terms, double[] weights, List<String> prefixes,
+			List<Filter> filters, String alphabet) {
+		Autocomplete.IncrementalBinarySearchAutocomplete engine = new Autocomplete.IncrementalBinarySearchAutocomplete(
+				terms, weights);
+		TreeMap<String, Double> model = new TreeMap<String, Double>();
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i = 0; i < terms.length; i++) {
+			model.put(terms[i], weights[i]);
+			ids.put(terms[i], i);
+		}
+		List<String> words = new ArrayList<String>(prefixes);
+		words.addAll(Arrays.asList(terms));
+		int ops = random.nextInt(4) == 0 ? Autocomplete.IncrementalBinarySearchAutocomplete.MIN_COMPACT_SIZE - 1 : 100;
+		for (int op = 0; op < ops; op++) {
+			String word = random.nextBoolean() ? words.get(random.nextInt(words.size()))
+					: randomWord(random, alphabet, 6);
+			int x = random.nextInt(10);
+			if (x < 3) {
+				double weight = random.nextInt(8);
+				engine.put(word, weight);
+				model.put(word, weight);
+				continue;
+			}
+			if (x < 5) {
+				engine.remove(word);
+				model.remove(word);
+				continue;
+			}
+			if (x == 5) {
+				engine.compact();
+				ids.keySet().retainAll(model.keySet());
+				if (engine.pendingUpdates() != 0)
+					fail(e, "compact() left " + engine.pendingUpdates() + " updates pending");
+				continue;
+			}
+			String prefix = word.substring(0, random.nextInt(word.length() + 1));
+			int k = KS[random.nextInt(KS.length)];
+			Filter filter = random.nextBoolean() ? null : filters.get(random.nextInt(filters.size()));
+			MatchFilter f = filter == null ? MatchFilter.NONE : filter.filter;
+			List<Term> found = new ArrayList<Term>(), unfiltered = new ArrayList<Term>();
+			for (String term : model.tailMap(prefix, true).keySet()) {
+				if (!term.startsWith(prefix))
+					break;
+				Integer id = ids.get(term);
+				unfiltered.add(new Term(term, model.get(term)));
+				if (f.accepts(id == null ? -1 : id, term, model.get(term)))
+					found.add(new Term(term, model.get(term)));
+			}
+			List<String> expected = top(found, k);
+			List<String> matches = list(engine.topMatches(prefix, k, f));
+			String probe = "after " + op + " updates, topMatches(" + quote(prefix) + ", " + k
+					+ (filter == null ? "" : ", " + filter.name) + ")";
+			if (!expected.equals(matches))
+				fail(e, probe + " expected " + describe(expected, model) + " got " + describe(matches, model));
+			List<String> best = top(unfiltered, 1);
+			String match = engine.topMatch(prefix);
+			if (!match.equals(best.isEmpty() ? "" : best.get(0)))
+				fail(e, "after " + op + " updates, topMatch(" + quote(prefix) + ") got " + quote(match));
+			Double weight = model.get(word);
+			if (engine.weightOf(word) != (weight == null ? 0 : weight) || engine.contains(word) != (weight != null))
+				fail(e, "after " + op + " updates, " + quote(word) + " has weight " + engine.weightOf(word)
+						+ (engine.contains(word) ? "" : " and is missing") + ", expected " + weight);
+		}
+		engine.compact();
+		List<Term> all = new ArrayList<Term>();
+		for (String term : model.keySet())
+			all.add(new Term(term, model.get(term)));
+		List<String> expected = top(all, Integer.MAX_VALUE);
+		List<String> matches = list(engine.topMatches("", Integer.MAX_VALUE));
+		if (!expected.equals(matches))
+			fail(e, "after compacting " + ops + " updates, topMatches(\"\") expected " + describe(expected, model)
+					+ " got " + describe(matches, model));
+	}
+
+	/**
+	 * Checks TrieAutocomplete's boosted topMatches() against scores
+	 * computed term by term, multiplied in the order the engine uses.
+	 */
+	private void checkBoosted(int e, Random random, String[] terms, double[] weights, List<String> prefixes,
+			List<Filter> filters) {
+		Autocomplete.TrieAutocomplete trie = new Autocomplete.TrieAutocomplete(terms, weights);
+		long[] times = new long[terms.length];
+		int[] locales = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			times[i] = 10L * random.nextInt(5);
+			locales[i] = random.nextInt(4);
+		}
+		trie.setWordContext(times, locales);
+		Set<String> history = new HashSet<String>();
+		for (int i = 0; i < 5 && terms.length > 0; i++)
+			history.add(terms[random.nextInt(terms.length)]);
+		history.add("not a term");
+		ScoreBoost[] boosts = { ScoreBoost.recency(40, 1 + random.nextInt(30)), ScoreBoost.history(history, 3),
+				ScoreBoost.history(history, 0.5), ScoreBoost.locales(new double[] { 1, 4, 0.25 }),
+				new ScoreBoost(30, 20, history, 2, new double[] { 0, 2 }) };
+		for (int p = 0; p < Math.min(prefixes.size(), 12); p++) {
+			String prefix = prefixes.get(p);
+			for (ScoreBoost boost : boosts) {
+				int k = KS[random.nextInt(KS.length)];
+				Filter filter = random.nextBoolean() ? null : filters.get(random.nextInt(filters.size()));
+				MatchFilter f = filter == null ? MatchFilter.NONE : filter.filter;
+				List<Term> found = new ArrayList<Term>();
+				HashMap<String, Double> scores = new HashMap<String, Double>();
+				for (int i = 0; i < terms.length; i++) {
+					if (!terms[i].startsWith(prefix))
+						continue;
+					double score = weights[i];
+					if (boost.hasRecency())
+						score *= boost.recencyFactor(times[i]);
+					if (boost.hasHistory() && history.contains(terms[i]))
+						score *= boost.getHistoryFactor();
+					if (boost.hasLocales())
+						score *= boost.localeFactor(locales[i]);
+					scores.put(terms[i], score);
+					if (f.accepts(i, terms[i], score))
+						found.add(new Term(terms[i], score));
+				}
+				List<String> expected = top(found, k);
+				List<String> matches = list(trie.topMatches(prefix, k, f, boost));
+				if (!expected.equals(matches))
+					fail(e, "topMatches(" + quote(prefix) + ", " + k + (filter == null ? "" : ", " + filter.name)
+							+ ", " + boost + ") expected " + describe(expected, scores) + " got "
+							+ describe(matches, scores));
+			}
+		}
+	}
+
+	/**
+	 * Splits the dictionary among up to three sources of different kinds,
+	 * some terms in several with different weights, and checks
+	 * FederatedAutocomplete against the combined weights.
+	 */
+	private void checkFederated(int e, Random random, String[] terms, double[] weights, List<String> prefixes,
+			List<Filter> filters, String alphabet) {
+		String[] kinds = { AutocompleteMain.TRIE_AUTOCOMPLETE, AutocompleteMain.BINARY_SEARCH_AUTOCOMPLETE,
+				AutocompleteMain.BRUTE_AUTOCOMPLETE };
+		double[] multiplierPool = { 0, 0.5, 1, 2 };
+		int n = 1 + random.nextInt(3);
+		List<LinkedHashMap<String, Double>> held = new ArrayList<LinkedHashMap<String, Double>>();
+		for (int s = 0; s < n; s++)
+			held.add(new LinkedHashMap<String, Double>());
+		for (int i = 0; i < terms.length; i++) {
+			int home = random.nextInt(n);
+			held.get(home).put(terms[i], weights[i]);
+			for (int s = 0; s < n; s++)
+				if (s != home && random.nextInt(3) == 0)
+					held.get(s).put(terms[i], (double) random.nextInt(5));
+		}
+		Autocomplete.Autocompletor[] sources = new Autocomplete.Autocompletor[n];
+		double[] multipliers = new double[n];
+		for (int s = 0; s < n; s++) {
+			String[] t = held.get(s).keySet().toArray(new String[0]);
+			double[] w = new double[t.length];
+			for (int i = 0; i < t.length; i++)
+				w[i] = held.get(s).get(t[i]);
+			sources[s] = AutocompletorRegistry.create(kinds[random.nextInt(kinds.length)], t, w);
+			multipliers[s] = multiplierPool[random.nextInt(multiplierPool.length)];
+		}
+		FederatedAutocomplete.Combine combine = FederatedAutocomplete.Combine.values()[random
+				.nextInt(FederatedAutocomplete.Combine.values().length)];
+		FederatedAutocomplete federated = new FederatedAutocomplete(sources, multipliers, null, combine);
+
+		// combined in source order, as the engine does
+		HashMap<String, Double> combined = new HashMap<String, Double>();
+		for (String term : terms) {
+			double weight = 0;
+			for (int s = 0; s < n; s++) {
+				Double w = held.get(s).get(term);
+				double scaled = (w == null ? 0 : w) * multipliers[s];
+				weight = combine == FederatedAutocomplete.Combine.SUM ? weight + scaled : Math.max(weight, scaled);
+			}
+			combined.put(term, weight);
+		}
+		String setup = n + " sources, " + combine + " of " + Arrays.toString(multipliers) + ": ";
+		for (String prefix : prefixes) {
+			int k = KS[random.nextInt(KS.length)];
+			Filter filter = random.nextBoolean() ? null : filters.get(random.nextInt(filters.size()));
+			if (filter != null && filter.filter.usesIds())
+				filter = null;
+			MatchFilter f = filter == null ? MatchFilter.NONE : filter.filter;
+			List<Term> found = new ArrayList<Term>();
+			for (String term : terms)
+				if (term.startsWith(prefix) && f.accepts(-1, term, combined.get(term)))
+					found.add(new Term(term, combined.get(term)));
+			List<String> expected = top(found, k);
+			List<String> matches = list(federated.topMatches(prefix, k, f));
+			if (!expected.equals(matches))
+				fail(e, setup + "topMatches(" + quote(prefix) + ", " + k + (filter == null ? "" : ", " + filter.name)
+						+ ") expected " + describe(expected, combined) + " got " + describe(matches, combined));
+			String word = random.nextBoolean() && terms.length > 0 ? terms[random.nextInt(terms.length)]
+					: randomWord(random, alphabet, 6);
+			double weight = combined.containsKey(word) ? combined.get(word) : 0;
+			if (federated.weightOf(word) != weight)
+				fail(e, setup + "weightOf(" + quote(word) + ") expected " + weight + " got " + federated.weightOf(word));
+		}
+	}
+
+	/**
+	 * Writes random hits to a log in pieces that split lines, multi-byte
+	 * characters and CRLF pairs, with now and then a line too long to keep.
+	 * One QueryLogIngester tails the log and another is given the same hits
+	 * directly, each over its own IncrementalBinarySearchAutocomplete. After
+	 * every flush both must agree on every count and weight, and the
+	 * tailing one's engine must hold, for every term, its original weight
+	 * (or not hold it, if it had none) unless the term is tracked, and
+	 * base + boost * count up to MIN_CHANGE if it is.
+	 */
+	private void checkIngester(int e, Random random, String[] terms, double[] weights, String alphabet) {
+		HashMap<String, Double> original = new HashMap<String, Double>();
+		for (int i = 0; i < terms.length; i++)
+			original.put(terms[i], weights[i]);
+		int capacity = random.nextInt(3) == 0 ? 1 : 1 + random.nextInt(8);
+		double boost = new double[] { 1, 2.5, 10 }[random.nextInt(3)];
+		double decay = new double[] { 1, 0.9, 0.5 }[random.nextInt(3)];
+		List<String> pool = new ArrayList<String>();
+		for (int i = 0; i < capacity + 3; i++)
+			pool.add(random.nextBoolean() && terms.length > 0 ? terms[random.nextInt(terms.length)]
+					: randomWord(random, alphabet, 6));
+		Set<String> watched = new HashSet<String>(pool);
+		for (int i = 0; i < Math.min(terms.length, 50); i++)
+			watched.add(terms[random.nextInt(terms.length)]);
+		String setup = "capacity " + capacity + ", boost " + boost + ", decay " + decay + ": ";
+
+		Path log = null;
+		try {
+			log = Files.createTempFile("fuzz", ".log");
+			Autocomplete.IncrementalBinarySearchAutocomplete tailed = new Autocomplete.IncrementalBinarySearchAutocomplete(
+					terms, weights);
+			Autocomplete.IncrementalBinarySearchAutocomplete fed = new Autocomplete.IncrementalBinarySearchAutocomplete(
+					terms, weights);
+			QueryLogIngester fromLog = new QueryLogIngester(log, tailed, capacity, boost, decay);
+			QueryLogIngester direct = new QueryLogIngester(log, fed, capacity, boost, decay);
+			byte[] unwritten = new byte[0];
+			// the terms of the lines not completely written yet, null for
+			// lines too long to be kept
+			List<String> lines = new ArrayList<String>();
+			int longLines = 0;
+			int rounds = 5 + random.nextInt(20);
+			for (int round = 0; round <= rounds; round++) {
+				StringBuilder text = new StringBuilder();
+				for (int i = round == rounds ? 0 : random.nextInt(8); i > 0; i--) {
+					if (random.nextInt(40) == 0) {
+						for (int c = QueryLogIngester.MAX_LINE_LENGTH + random.nextInt(100); c >= 0; c--)
+							text.append('x');
+						lines.add(null);
+						longLines++;
+					} else {
+						String term = pool.get(random.nextInt(pool.size()));
+						if (random.nextInt(3) == 0)
+							text.append(randomWord(random, alphabet, 4)).append('\t');
+						text.append(term);
+						lines.add(term);
+					}
+					text.append(random.nextBoolean() ? "\r\n" : "\n");
+				}
+				byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+				byte[] pending = Arrays.copyOf(unwritten, unwritten.length + bytes.length);
+				System.arraycopy(bytes, 0, pending, unwritten.length, bytes.length);
+				int cut = round == rounds ? pending.length : random.nextInt(pending.length + 1);
+				Files.write(log, Arrays.copyOf(pending, cut), StandardOpenOption.APPEND);
+				unwritten = Arrays.copyOfRange(pending, cut, pending.length);
+
+				int complete = 0;
+				for (int i = 0; i < cut; i++)
+					if (pending[i] == '\n')
+						complete++;
+				int expected = 0;
+				for (String term : lines.subList(0, complete)) {
+					if (term != null) {
+						direct.hit(term);
+						expected++;
+					}
+				}
+				lines.subList(0, complete).clear();
+				int polled = fromLog.poll();
+				if (polled != expected)
+					fail(e, setup + "poll() read " + polled + " lines, expected " + expected);
+				fromLog.flush();
+				direct.flush();
+				checkWeights(e, setup + "after " + round + " flushes, ", watched, original, fromLog, tailed, direct,
+						fed, boost, decay);
+			}
+			if (fromLog.getSkippedLines() != longLines)
+				fail(e, setup + "skipped " + fromLog.getSkippedLines() + " long lines, expected " + longLines);
+		} catch (IOException ex) {
+			fail(e, "log could not be written or read: " + ex);
+		} finally {
+			delete(log);
+		}
+	}
+
+	private void checkWeights(int e, String when, Set<String> watched, HashMap<String, Double> original,
+			QueryLogIngester fromLog, Autocomplete.IncrementalBinarySearchAutocomplete tailed,
+			QueryLogIngester direct, Autocomplete.IncrementalBinarySearchAutocomplete fed, double boost,
+			double decay) {
+		for (String term : watched) {
+			double count = fromLog.countOf(term), weight = tailed.weightOf(term);
+			if (count != direct.countOf(term) || weight != fed.weightOf(term)
+					|| tailed.contains(term) != fed.contains(term))
+				fail(e, when + quote(term) + " has count " + count + " and weight " + weight + " from the log but "
+						+ direct.countOf(term) + " and " + fed.weightOf(term) + " from direct hits");
+			Double base = original.get(term);
+			if (count == 0) {
+				if (tailed.contains(term) != (base != null) || weight != (base == null ? 0 : base))
+					fail(e, when + "untracked " + quote(term) + " has weight " + weight
+							+ (tailed.contains(term) ? "" : " and is missing") + ", expected " + base);
+			} else {
+				// the count has already been decayed for the next period
+				double target = (base == null ? 0 : base) + boost * count / decay;
+				double slack = QueryLogIngester.MIN_CHANGE * Math.max(1, weight) + 1e-9 * (1 + target);
+				if (!tailed.contains(term) || Math.abs(weight - target) > slack)
+					fail(e, when + "tracked " + quote(term) + " with base " + base + " and count " + count
+							+ " has weight " + weight + (tailed.contains(term) ? "" : " and is missing")
+							+ ", expected about " + target);
+			}
+		}
+	}
+
+	/**
+	 * Lists matches as quoted terms with their weights.
+	 */
+	private static String describe(List<String> matches, Map<String, Double> weights) {
+		StringBuilder sb = new StringBuilder("[");
+		for (String s : matches) {
+			if (sb.length() > 1)
+				sb.append(", ");
+			sb.append(quote(s)).append('=').append(weights.get(s));
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Quotes s for a failure message, escaping anything outside printable
+	 * ASCII.
+	 */
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= ' ' && c < 0x7F)
+				sb.append(c);
+			else
+				sb.append(String.format("\\u%04x", (int) c));
+		}
+		return sb.append('"').toString();
+	}
+
+	private void fail(int e, String message) {
+		myFailures[e]++;
+		if (myShown++ < MAX_FAILURES_SHOWN)
+			System.out.println("case " + myCaseSeed + ": " + myEngines[e] + " " + message);
+	}
+
+	/**
+	 * Returns a table of failures and build and query time per engine.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-50s %10s %12s %12s%n", "engine", "failures", "build ms", "query ms"));
+		for (int e = 0; e < myEngines.length; e++)
+			sb.append(String.format("%-50s %10d %12.1f %12.1f%n", myEngines[e], myFailures[e],
+					myBuildNanos[e] / 1E6, myQueryNanos[e] / 1E6));
+		return sb.toString();
+	}
+}
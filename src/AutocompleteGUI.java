@@ -42,16 +42,13 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Queue;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -67,6 +64,7 @@ import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.LayoutStyle;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
 
 @SuppressWarnings("serial")
 public class AutocompleteGUI extends JFrame {
@@ -74,16 +72,20 @@ public class AutocompleteGUI extends JFrame {
 	private static int DEF_HEIGHT = 400;
 	private static String searchURL = "https://www.google.com/search?q=";
 
+	// warm-up budget before the engine takes queries; 0 ms disables it
+	static long WARM_UP_MILLIS = 2000;
+	static int WARM_UP_QUERIES = 200000;
+
 	public static final String CHARSET = "UTF-8";
 	public static final Locale LOCALE = Locale.US;
 
 	// display top k results
 	private final int k;
-	private final String autocompletorClassName;
+	private final String autocompletorName;
 
-	public AutocompleteGUI(String fileName, int k, String className) {
+	public AutocompleteGUI(String fileName, int k, String autocompletorName) {
 		this.k = k;
-		this.autocompletorClassName = className;
+		this.autocompletorName = autocompletorName;
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setTitle("Autocomplete");
 		setLocationRelativeTo(null);
@@ -150,29 +152,21 @@ public class AutocompleteGUI extends JFrame {
 			super();
 
 			// read in the data
-			Scanner in;
+			String[] terms = null;
+			double[] weights = null;
 			try {
-				in = new Scanner(new File(filename), CHARSET);
-				in.useLocale(LOCALE);
-				int N = Integer.parseInt(in.nextLine());
-				String[] terms = new String[N];
-				double[] weights = new double[N];
-				for (int i = 0; i < N; i++) {
-					String line = in.nextLine();
-					int tab = line.indexOf('\t');
-					weights[i] = Double.parseDouble(line.substring(0, tab).trim());
-					terms[i] = line.substring(tab + 1);
-				}
-				// create the autocomplete object
-				auto = (Autocomplete.Autocompletor) Class.forName(autocompletorClassName)
-						.getDeclaredConstructor(String[].class, double[].class).newInstance(terms, weights);
+				DictionaryFile dictionary = DictionaryFile.read(filename);
+				terms = dictionary.getTerms();
+				weights = dictionary.getWeights();
+				// create the autocomplete object; it matches on normalised
+				// terms and returns them in their original form
+				auto = new NormalizingAutocomplete(terms, weights, AutocompletorRegistry.factory(autocompletorName));
 
-			} catch (InstantiationException | IllegalAccessException | ClassNotFoundException | IllegalArgumentException
-					| InvocationTargetException | NoSuchMethodException | SecurityException e1) {
+			} catch (IllegalArgumentException | IllegalStateException e1) {
 				e1.printStackTrace();
 				System.exit(1);
-			} catch (FileNotFoundException e2) {
-				System.out.println("Cannot read file " + filename);
+			} catch (IOException e2) {
+				System.out.println("Cannot read file " + filename + ": " + e2.getMessage());
 				System.exit(1);
 
 			}
@@ -315,6 +309,30 @@ public class AutocompleteGUI extends JFrame {
 			);
 			layout.setVerticalGroup(
 					layout.createSequentialGroup().addComponent(searchTextPanel).addComponent(suggestionsPanel));
+
+			// prime the JIT before the first keystroke, off the event
+			// dispatch thread; the text field stays disabled until then
+			if (WARM_UP_MILLIS > 0) {
+				final EngineWarmer warmer = new EngineWarmer(terms, weights, k, 1234);
+				searchText.setEnabled(false);
+				new SwingWorker<EngineWarmer.Report, Void>() {
+					@Override
+					protected EngineWarmer.Report doInBackground() {
+						return warmer.warmUp(auto, WARM_UP_QUERIES, WARM_UP_MILLIS);
+					}
+
+					@Override
+					protected void done() {
+						searchText.setEnabled(true);
+						searchText.requestFocusInWindow();
+						try {
+							get();
+						} catch (InterruptedException | ExecutionException e) {
+							e.printStackTrace();
+						}
+					}
+				}.execute();
+			}
 		}
 
 		public void paintComponent(Graphics g) {
@@ -337,7 +355,7 @@ public class AutocompleteGUI extends JFrame {
 				int textLen = text.length();
 				Queue<String> resultQ = new LinkedList<String>();
 				Queue<Double> ds = new LinkedList<Double>();
-				for (String term : auto.topMatches(text.toLowerCase(), k)) {
+				for (String term : auto.topMatches(text, k)) {
 					resultQ.add(term);
 					ds.add(auto.weightOf(term));
 				}
@@ -350,7 +368,9 @@ public class AutocompleteGUI extends JFrame {
 						 * delimiter "|" to ensure that the search does not
 						 * include the weight.
 						 */
-						results[i] = "<html>" + results[i].substring(0, textLen) + "<b>" + results[i].substring(textLen)
+						// the display form may differ in length from the typed text
+						int split = Math.min(textLen, results[i].length());
+						results[i] = "<html>" + results[i].substring(0, split) + "<b>" + results[i].substring(split)
 								+ "</b>" + "|<span style=\"color:#C0C0C0;\">" + String.format("%.0f",ds.remove()) + "</span></html>";
 					}
 					suggestions.setListData(results);
@@ -14,11 +14,22 @@ public class AutocompleteMain {
 	static int K = 10;
 
 	final static String BRUTE_AUTOCOMPLETE = "Autocomplete$BruteAutocomplete";
+	final static String PARALLEL_BRUTE_AUTOCOMPLETE = "Autocomplete$ParallelBruteAutocomplete";
+	final static String PACKED_BRUTE_AUTOCOMPLETE = "Autocomplete$PackedBruteAutocomplete";
 	final static String BINARY_SEARCH_AUTOCOMPLETE = "Autocomplete$BinarySearchAutocomplete";
+	final static String INCREMENTAL_BINARY_SEARCH_AUTOCOMPLETE = "Autocomplete$IncrementalBinarySearchAutocomplete";
 	final static String TRIE_AUTOCOMPLETE = "Autocomplete$TrieAutocomplete";
+	final static String UTF8_BINARY_SEARCH_AUTOCOMPLETE = "Utf8BinarySearchAutocomplete";
+	final static String FRONT_CODED_AUTOCOMPLETE = "FrontCodedAutocomplete";
+	final static String TOKEN_AUTOCOMPLETE = "TokenAutocomplete";
+	final static String SUFFIX_ARRAY_AUTOCOMPLETE = "SuffixArrayAutocomplete";
+	final static String ADAPTIVE_AUTOCOMPLETE = "AdaptiveAutocomplete";
 
-	/* Modify name of Autocompletor implementation as necessary */
-	final static String AUTOCOMPLETOR_CLASS_NAME = TRIE_AUTOCOMPLETE;
+	/*
+	 * Name of the Autocompletor to use, as registered with
+	 * AutocompletorRegistry; a third command-line argument overrides it
+	 */
+	static String AUTOCOMPLETOR_NAME = TRIE_AUTOCOMPLETE;
 
 	public static void main(String[] args) {
 		String filename = null;
@@ -26,6 +37,8 @@ public class AutocompleteMain {
 			filename = args[0];
 			K = Integer.parseInt(args[1]);
 		}
+		if (args.length >= 3)
+			AUTOCOMPLETOR_NAME = args[2];
 		JFileChooser fileChooser = new JFileChooser(".");
 		int retval = fileChooser.showOpenDialog(null);
 		if (retval == JFileChooser.APPROVE_OPTION) {
@@ -36,7 +49,7 @@ public class AutocompleteMain {
 				file = new File(filename);
 			SwingUtilities.invokeLater(new Runnable() {
 				public void run() {
-					new AutocompleteGUI(file.getAbsolutePath(), K, AUTOCOMPLETOR_CLASS_NAME).setVisible(true);
+					new AutocompleteGUI(file.getAbsolutePath(), K, AUTOCOMPLETOR_NAME).setVisible(true);
 				}
 			});
 		}
@@ -2,7 +2,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Locale;
 import java.util.Random;
-import java.util.Scanner;
 import java.util.HashMap;
 
 import javax.swing.JFileChooser;
@@ -36,13 +35,12 @@ public class AutocompletorBenchmark {
     /**
      * Brings up chooser for user to select a file
      * 
-     * @return Scanner for user selected file, null if file not found
+     * @return user selected file, null if no readable file was chosen
      */
-    public static Scanner getScanner() {
+    public static File getFile() {
         int retval = ourChooser.showOpenDialog(null);
         if (retval == JFileChooser.APPROVE_OPTION) {
             File f = ourChooser.getSelectedFile();
-            Scanner s;
             try {
                 if (f.canRead()) {
                     System.out.println("Opening - " +  f.getCanonicalPath() + ".");
@@ -50,54 +48,65 @@ public class AutocompletorBenchmark {
                     System.out.println("Could not open selected file.");
                     return null;
                 }
-                s = new Scanner(f, CHARSET);
-                s.useLocale(LOCALE);
-                
             } catch (IOException e) {
                 return null;
             }
-            return s;
+            return f;
         }
         return null;
     }
 
     public static long countNodes(Node root) {
-        long result = 1;
-        for (Node child : root.children.values())
-            result += countNodes(child);
-        return result;
+        return TrieStats.compute(root).getNodeCount();
+    }
+
+    /**
+     * Prints each engine's estimated retained size by component, and per
+     * term and per character of the dictionary.
+     */
+    public static void reportMemory(String[] terms, Autocomplete.Autocompletor[] instances) {
+        long chars = 0;
+        for (String term : terms)
+            chars += term.length();
+        for (Autocomplete.Autocompletor auto : instances) {
+            MemoryFootprint footprint = MemoryFootprint.of(auto);
+            System.out.println("Memory footprint of " + auto.getClass().getName() + ":");
+            System.out.println(footprint);
+            System.out.printf("%.1f bytes/term, %.2f bytes/char%n", (double) footprint.total() / Math.max(1, terms.length),
+                    (double) footprint.total() / Math.max(1, chars));
+        }
     }
 
         public static void main(String[] args) {
         
-        Scanner in = null;
+        File file = null;
         do {
-            in = getScanner();
+            file = getFile();
             
-        } while (in == null);
+        } while (file == null);
         
         int N = 0;
         String[] terms = null;
         double[] weights = null;
         try {
-            N = Integer.parseInt(in.nextLine());
-            terms = new String[N];
-            weights = new double[N];
-
-            for (int i = 0; i < N; i++) {
-                String line = in.nextLine();
-                int tab = line.indexOf('\t');
-                weights[i] = Double.parseDouble(line.substring(0, tab).trim());
-                terms[i] = line.substring(tab + 1).toLowerCase();
-            }
-        } catch (Exception e) { //could be any parsing related exception
-            System.err.println("File is malformatted");
+            long startTime = System.nanoTime();
+            DictionaryFile dictionary = DictionaryFile.read(file.getPath());
+            System.out.println("Time to read file - " + (System.nanoTime() - startTime) / 1E9);
+            terms = dictionary.getTerms();
+            weights = dictionary.getWeights();
+            N = terms.length;
+            for (int i = 0; i < N; i++)
+                terms[i] = TermNormalizer.normalize(terms[i]);
+        } catch (IOException e) { //could be any parsing related exception
+            System.err.println("File is malformatted: " + e.getMessage());
             System.exit(0);
         }
         //Autocomplete.Autocompletor auto = getInstance(terms, weights);
         System.out.println("Found " + N + " words");
         Autocomplete.Autocompletor[] instances = getInstances(terms, weights);
+        reportMemory(terms, instances);
         HashMap<String, Double[]> results = new HashMap<String, Double[]>();
+        EngineWarmer.Report[] warmUps = new EngineWarmer.Report[3];
         String randomWord = "";
         while (randomWord.length() <= 2)
             randomWord = terms[ourRandom.nextInt(terms.length)];
@@ -108,8 +117,13 @@ public class AutocompletorBenchmark {
             long startTime = System.nanoTime();
             Autocomplete.Autocompletor auto = instances[instanceNum];
             System.out.println("Benchmarking " + auto.getClass().getName() + "...");
+            // mean latency over the warm-up's first pass through the query mix
+            // is reported as cold, over its last pass as warm
+            EngineWarmer.Report warmUp = new EngineWarmer(terms, weights, 7, 1234).warmUp(auto, 200000, 10000);
+            warmUps[instanceNum] = warmUp;
+            System.out.println("Warm-up - " + warmUp);
             if (auto instanceof Autocomplete.TrieAutocomplete)
-                System.out.println("Created " + countNodes(((Autocomplete.TrieAutocomplete) auto).myRoot) + " nodes");
+                System.out.println("Created " + TrieStats.compute(((Autocomplete.TrieAutocomplete) auto).myRoot));
             int trial;
             for (String query : queries) {
                 startTime = System.nanoTime();
@@ -128,7 +142,9 @@ public class AutocompletorBenchmark {
                 for (int k = 1; k <= 7; k += 3) {
                     startTime = System.nanoTime();
                     for (trial = 0; trial < 1000; trial++) {
-                        auto.topMatches(query, k);
+                        // Results may be produced lazily, so consume them all.
+                        for (String match : auto.topMatches(query, k))
+                            match.length();
                         if (System.nanoTime() - startTime > 5E9)
                             break;
                     }
@@ -145,6 +161,10 @@ public class AutocompletorBenchmark {
         System.out.printf("%-15s, %-15s, %-15s, %-15s", 
                 "prefix", "Brute", "Binary", "Trie\n");
         System.out.println("-------------------------------------------------------------------");
+        System.out.printf("%-15s,%15.5e, %15.5e, %15.5e\n", "cold query", warmUps[0].getColdNanosPerQuery() / 1E9,
+                warmUps[1].getColdNanosPerQuery() / 1E9, warmUps[2].getColdNanosPerQuery() / 1E9);
+        System.out.printf("%-15s,%15.5e, %15.5e, %15.5e\n", "warm query", warmUps[0].getWarmNanosPerQuery() / 1E9,
+                warmUps[1].getWarmNanosPerQuery() / 1E9, warmUps[2].getWarmNanosPerQuery() / 1E9);
         for (int instanceNum = 0; instanceNum < 3; instanceNum++) { 
             for (String query : results.keySet()) {
                 System.out.printf("%-15s,%15.5e, %15.5e, %15.5e\n", query, results.get(query)[0], results.get(query)[1], results.get(query)[2]);
@@ -0,0 +1,138 @@
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.BiFunction;
+
+/**
+ * Looks up Autocompletor implementations by name. The engines in this
+ * source tree are always registered under their binary class names (the
+ * constants in AutocompleteMain). Further engines are found with
+ * ServiceLoader: a jar on the class path lists its Provider classes in
+ * META-INF/services/AutocompletorRegistry$Provider, one per line.
+ * 
+ * A name no provider claims is tried as the name of a class with a
+ * (String[], double[]) constructor, which is how engines were picked
+ * before the registry existed.
+ */
+public class AutocompletorRegistry {
+
+	/**
+	 * A source of Autocompletor engines, loaded by ServiceLoader.
+	 * Implementations need a public no-argument constructor.
+	 */
+	public interface Provider {
+		/**
+		 * Returns the names of the engines this provider builds.
+		 */
+		Collection<String> names();
+
+		/**
+		 * Builds engine name over terms and weights.
+		 */
+		Autocomplete.Autocompletor create(String name, String[] terms, double[] weights);
+	}
+
+	/**
+	 * The engines in this tree, built through their (String[], double[])
+	 * constructors.
+	 */
+	private static class BuiltinProvider implements Provider {
+		private static final List<String> NAMES = Arrays.asList(AutocompleteMain.BRUTE_AUTOCOMPLETE,
+				AutocompleteMain.PARALLEL_BRUTE_AUTOCOMPLETE, AutocompleteMain.PACKED_BRUTE_AUTOCOMPLETE,
+				AutocompleteMain.BINARY_SEARCH_AUTOCOMPLETE, AutocompleteMain.INCREMENTAL_BINARY_SEARCH_AUTOCOMPLETE,
+				AutocompleteMain.TRIE_AUTOCOMPLETE, AutocompleteMain.UTF8_BINARY_SEARCH_AUTOCOMPLETE,
+				AutocompleteMain.FRONT_CODED_AUTOCOMPLETE, AutocompleteMain.TOKEN_AUTOCOMPLETE,
+				AutocompleteMain.SUFFIX_ARRAY_AUTOCOMPLETE, AutocompleteMain.ADAPTIVE_AUTOCOMPLETE);
+
+		public Collection<String> names() {
+			return NAMES;
+		}
+
+		public Autocomplete.Autocompletor create(String name, String[] terms, double[] weights) {
+			return byClassName(name, terms, weights);
+		}
+	}
+
+	private static LinkedHashMap<String, Provider> ourProviders;
+
+	/**
+	 * Maps every engine name to its provider, loading providers on first
+	 * use. The first provider to claim a name keeps it.
+	 */
+	private static synchronized LinkedHashMap<String, Provider> providers() {
+		if (ourProviders == null) {
+			LinkedHashMap<String, Provider> providers = new LinkedHashMap<String, Provider>();
+			Provider builtin = new BuiltinProvider();
+			for (String name : builtin.names())
+				providers.put(name, builtin);
+			for (Provider provider : ServiceLoader.load(Provider.class))
+				for (String name : provider.names())
+					providers.putIfAbsent(name, provider);
+			ourProviders = providers;
+		}
+		return ourProviders;
+	}
+
+	/**
+	 * Returns the names of all registered engines, built-in ones first.
+	 */
+	public static Collection<String> names() {
+		return Collections.unmodifiableCollection(providers().keySet());
+	}
+
+	/**
+	 * Builds engine name over terms and weights.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if no provider or class is known by that name
+	 */
+	public static Autocomplete.Autocompletor create(String name, String[] terms, double[] weights) {
+		if (name == null)
+			throw new NullPointerException("Engine name is null");
+		Provider provider = providers().get(name);
+		if (provider != null)
+			return provider.create(name, terms, weights);
+		return byClassName(name, terms, weights);
+	}
+
+	/**
+	 * Returns a function that builds engine name, as NormalizingAutocomplete
+	 * and AdaptiveAutocomplete expect. The name is resolved on each call.
+	 */
+	public static BiFunction<String[], double[], Autocomplete.Autocompletor> factory(final String name) {
+		if (name == null)
+			throw new NullPointerException("Engine name is null");
+		return new BiFunction<String[], double[], Autocomplete.Autocompletor>() {
+			public Autocomplete.Autocompletor apply(String[] terms, double[] weights) {
+				return create(name, terms, weights);
+			}
+		};
+	}
+
+	private static Autocomplete.Autocompletor byClassName(String name, String[] terms, double[] weights) {
+		Constructor<?> engine;
+		try {
+			engine = Class.forName(name).getDeclaredConstructor(String[].class, double[].class);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			throw new IllegalArgumentException("Unknown autocompletor " + name, e);
+		}
+		if (!Autocomplete.Autocompletor.class.isAssignableFrom(engine.getDeclaringClass()))
+			throw new IllegalArgumentException(name + " is not an Autocompletor");
+		try {
+			return (Autocomplete.Autocompletor) engine.newInstance(terms, weights);
+		} catch (InvocationTargetException e) {
+			// rethrow the constructor's own NullPointerException or
+			// IllegalArgumentException unchanged
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
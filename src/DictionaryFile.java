@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a dictionary file: a line holding the number of terms N, then N
+ * lines of weight, tab, term, in UTF-8. Anything after the N-th term line is
+ * ignored.
+ * 
+ * Instead of a Scanner and a substring per field, the file is cut into byte
+ * ranges that are parsed in parallel, one per core. Each range is read in
+ * CHUNK_SIZE blocks into a direct buffer and scanned for newlines and the
+ * tab byte-by-byte; since both are ASCII they cannot occur inside a
+ * multi-byte UTF-8 character. A range owns the lines that start in it, so a
+ * line crossing a range boundary is parsed exactly once. A range stops at
+ * its first bad line, which is only reported if it turns out to be among
+ * the first N.
+ * 
+ * Weights such as "  22175" or "0.25" are parsed on a fast path: the digits
+ * are collected into a long and divided by a power of ten, which is
+ * correctly rounded while the digits fit in 53 bits. Anything else
+ * (exponents, 17 significant digits, "NaN") goes to Double.parseDouble.
+ */
+public class DictionaryFile {
+
+	static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Files smaller than this are parsed as one range.
+	 */
+	static final long MIN_PARALLEL_SIZE = 4L << 20;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final String[] myTerms;
+	private final double[] myWeights;
+
+	private DictionaryFile(String[] terms, double[] weights) {
+		myTerms = terms;
+		myWeights = weights;
+	}
+
+	public String[] getTerms() {
+		return myTerms;
+	}
+
+	public double[] getWeights() {
+		return myWeights;
+	}
+
+	public static DictionaryFile read(String filename) throws IOException {
+		return read(Paths.get(filename));
+	}
+
+	/**
+	 * Reads file on the common fork-join pool.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be read, one of the N term lines has no
+	 *             tab or a bad weight, or there are fewer than N of them
+	 */
+	public static DictionaryFile read(Path file) throws IOException {
+		return read(file, ForkJoinPool.commonPool());
+	}
+
+	public static DictionaryFile read(Path file, ForkJoinPool pool) throws IOException {
+		if (file == null || pool == null)
+			throw new NullPointerException("One or more arguments null");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			RangeParser header = new RangeParser(channel, size, 0, 0, 0);
+			long dataStart = header.readLine(0);
+			int n = parseCount(header.myLine, header.myLineLength);
+
+			long dataSize = size - dataStart;
+			int ranges = dataSize < MIN_PARALLEL_SIZE ? 1
+					: (int) Math.max(1, Math.min(pool.getParallelism(), dataSize / CHUNK_SIZE));
+			List<Callable<RangeParser>> parsers = new ArrayList<Callable<RangeParser>>();
+			for (int i = 0; i < ranges; i++) {
+				long from = dataStart + dataSize * i / ranges;
+				long to = dataStart + dataSize * (i + 1) / ranges;
+				parsers.add(new RangeParser(channel, size, from, to, n));
+			}
+
+			String[] terms = new String[n];
+			double[] weights = new double[n];
+			int count = 0;
+			for (Future<RangeParser> f : pool.invokeAll(parsers)) {
+				RangeParser parsed = get(f);
+				if (parsed.myError != null && parsed.myCount < n - count)
+					throw new IOException(parsed.myError);
+				int copy = Math.min(parsed.myCount, n - count);
+				System.arraycopy(parsed.myTerms, 0, terms, count, copy);
+				System.arraycopy(parsed.myWeights, 0, weights, count, copy);
+				count += copy;
+			}
+			if (count < n)
+				throw new IOException("Expected " + n + " terms but found " + count);
+			return new DictionaryFile(terms, weights);
+		}
+	}
+
+	private static RangeParser get(Future<RangeParser> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static int parseCount(byte[] line, int length) throws IOException {
+		String s = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+		try {
+			int n = Integer.parseInt(s);
+			if (n < 0)
+				throw new NumberFormatException();
+			return n;
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad term count \"" + s + "\"");
+		}
+	}
+
+	/**
+	 * Parses the weight in line[from..to), ignoring surrounding whitespace.
+	 */
+	static double parseWeight(byte[] line, int from, int to) {
+		while (from < to && line[from] <= ' ')
+			from++;
+		while (to > from && line[to - 1] <= ' ')
+			to--;
+		long digits = 0;
+		int significant = 0;
+		int fraction = -1;
+		int i = from;
+		for (; i < to; i++) {
+			byte b = line[i];
+			if (b >= '0' && b <= '9') {
+				if (digits != 0 || b != '0')
+					significant++;
+				digits = digits * 10 + (b - '0');
+				if (fraction >= 0)
+					fraction++;
+			} else if (b == '.' && fraction < 0)
+				fraction = 0;
+			else
+				break;
+		}
+		boolean hasDigit = to - from > (fraction >= 0 ? 1 : 0);
+		if (i == to && hasDigit && significant <= 15 && fraction < POWERS_OF_TEN.length)
+			return fraction <= 0 ? digits : digits / POWERS_OF_TEN[fraction];
+		return Double.parseDouble(new String(line, from, to - from, StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Parses the lines starting in [myFrom, myTo) of the file, up to myLimit
+	 * of them or the first bad one.
+	 */
+	private static class RangeParser implements Callable<RangeParser> {
+		private final FileChannel myChannel;
+		private final long mySize;
+		private final long myFrom;
+		private final long myTo;
+		private final int myLimit;
+
+		private ByteBuffer myBuffer;
+		private long myBufferStart;
+
+		byte[] myLine = new byte[256];
+		int myLineLength;
+
+		String[] myTerms = new String[1024];
+		double[] myWeights = new double[1024];
+		int myCount;
+
+		/**
+		 * Why the line after the first myCount ones is bad, or null.
+		 */
+		String myError;
+
+		RangeParser(FileChannel channel, long size, long from, long to, int limit) {
+			myChannel = channel;
+			mySize = size;
+			myFrom = from;
+			myTo = to;
+			myLimit = limit;
+		}
+
+		public RangeParser call() throws IOException {
+			long pos = myFrom;
+			// unless the byte before is a newline, pos is inside a line that
+			// the previous range owns
+			if (pos < myTo && byteAt(pos - 1) != '\n') {
+				pos = readLine(pos);
+			}
+			while (pos < myTo && myCount < myLimit && myError == null) {
+				long lineStart = pos;
+				pos = readLine(pos);
+				addLine(lineStart);
+			}
+			return this;
+		}
+
+		private byte byteAt(long pos) throws IOException {
+			fill(pos);
+			return myBuffer.get((int) (pos - myBufferStart));
+		}
+
+		/**
+		 * Makes sure the buffer holds the byte at pos, if the file has one.
+		 */
+		private void fill(long pos) throws IOException {
+			if (myBuffer == null)
+				myBuffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			else if (pos >= myBufferStart && pos < myBufferStart + myBuffer.limit())
+				return;
+			myBuffer.clear();
+			while (myBuffer.hasRemaining() && pos + myBuffer.position() < mySize) {
+				if (myChannel.read(myBuffer, pos + myBuffer.position()) < 0)
+					break;
+			}
+			myBuffer.flip();
+			myBufferStart = pos;
+		}
+
+		/**
+		 * Copies the line starting at pos into myLine, without its line
+		 * terminator, and returns the position of the next line.
+		 */
+		long readLine(long pos) throws IOException {
+			myLineLength = 0;
+			while (pos < mySize) {
+				fill(pos);
+				int start = (int) (pos - myBufferStart);
+				int limit = myBuffer.limit();
+				int end = start;
+				while (end < limit && myBuffer.get(end) != '\n')
+					end++;
+				append(start, end);
+				pos += end - start;
+				if (end < limit) {
+					pos++;
+					break;
+				}
+			}
+			if (myLineLength > 0 && myLine[myLineLength - 1] == '\r')
+				myLineLength--;
+			return pos;
+		}
+
+		private void append(int start, int end) {
+			int length = end - start;
+			if (myLineLength + length > myLine.length)
+				myLine = Arrays.copyOf(myLine, Math.max(myLineLength + length, 2 * myLine.length));
+			myBuffer.position(start);
+			myBuffer.get(myLine, myLineLength, length);
+			myLineLength += length;
+		}
+
+		private void addLine(long lineStart) {
+			int tab = 0;
+			while (tab < myLineLength && myLine[tab] != '\t')
+				tab++;
+			if (tab == myLineLength) {
+				myError = "No tab in line at byte " + lineStart;
+				return;
+			}
+			double weight;
+			try {
+				weight = parseWeight(myLine, 0, tab);
+			} catch (NumberFormatException e) {
+				myError = "Bad weight in line at byte " + lineStart;
+				return;
+			}
+			if (myCount == myTerms.length) {
+				myTerms = Arrays.copyOf(myTerms, 2 * myCount);
+				myWeights = Arrays.copyOf(myWeights, 2 * myCount);
+			}
+			myTerms[myCount] = new String(myLine, tab + 1, myLineLength - tab - 1, StandardCharsets.UTF_8);
+			myWeights[myCount++] = weight;
+		}
+	}
+}
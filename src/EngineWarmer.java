@@ -0,0 +1,204 @@
+import java.util.Random;
+
+/**
+ * Primes an Autocompletor before it takes real traffic. Right after a load
+ * the engine's code runs interpreted, then C1-compiled, and only later fully
+ * optimised, so the first few thousand queries are several times slower
+ * than the rest.
+ * 
+ * The warmer replays a synthetic mix of QUERY_MIX_SIZE queries: terms
+ * sampled by weight, cut to a random prefix of up to MAX_PREFIX_LENGTH
+ * characters (possibly empty), like what users type. It times the mix in
+ * batches of BATCH_SIZE and stops when the budget of queries or time runs
+ * out, or at steady state: once STEADY_BATCHES batches in a row each run
+ * within STEADY_TOLERANCE of the same batch one pass earlier. Comparing a
+ * batch with itself keeps cheap and expensive prefixes from looking like
+ * noise.
+ */
+public class EngineWarmer {
+
+	static final int QUERY_MIX_SIZE = 4096;
+	static final int MAX_PREFIX_LENGTH = 10;
+	static final int BATCH_SIZE = 256;
+	static final int STEADY_BATCHES = 16;
+	static final double STEADY_TOLERANCE = 0.1;
+
+	private final String[] myQueries;
+	private final int myK;
+	private volatile int mySink;
+
+	/**
+	 * Builds the query mix from terms and weights, answering each with
+	 * topMatches(prefix, k).
+	 * 
+	 * @throws NullPointerException
+	 *             if terms or weights is null
+	 * @throws IllegalArgumentException
+	 *             if they differ in length or k is negative
+	 */
+	public EngineWarmer(String[] terms, double[] weights, int k, long seed) {
+		if (terms == null || weights == null)
+			throw new NullPointerException("One or more arguments null");
+		if (terms.length != weights.length)
+			throw new IllegalArgumentException("terms and weights are not the same length");
+		if (k < 0)
+			throw new IllegalArgumentException("Illegal value of k:" + k);
+		myK = k;
+		myQueries = new String[terms.length == 0 ? 1 : QUERY_MIX_SIZE];
+		if (terms.length == 0) {
+			myQueries[0] = "";
+			return;
+		}
+		// cumulative weights; sampled by binary search
+		double[] cumulative = new double[terms.length];
+		double total = 0;
+		for (int i = 0; i < terms.length; i++) {
+			total += Math.max(0, weights[i]);
+			cumulative[i] = total;
+		}
+		Random random = new Random(seed);
+		for (int q = 0; q < myQueries.length; q++) {
+			int i;
+			if (total > 0 && total < Double.POSITIVE_INFINITY) {
+				double x = random.nextDouble() * total;
+				int lo = 0, hi = terms.length - 1;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (cumulative[mid] <= x)
+						lo = mid + 1;
+					else
+						hi = mid;
+				}
+				i = lo;
+			} else
+				i = random.nextInt(terms.length);
+			String term = terms[i];
+			int length = random.nextInt(Math.min(term.length(), MAX_PREFIX_LENGTH) + 1);
+			// do not split a surrogate pair
+			if (length > 0 && Character.isHighSurrogate(term.charAt(length - 1)))
+				length--;
+			myQueries[q] = term.substring(0, length);
+		}
+	}
+
+	/**
+	 * Outcome of a warm-up run.
+	 */
+	public static class Report {
+		private final int myQueries;
+		private final long myElapsedNanos;
+		private final double myColdNanos;
+		private final double myWarmNanos;
+		private final int mySteadyAfter;
+
+		Report(int queries, long elapsedNanos, double coldNanos, double warmNanos, int steadyAfter) {
+			myQueries = queries;
+			myElapsedNanos = elapsedNanos;
+			myColdNanos = coldNanos;
+			myWarmNanos = warmNanos;
+			mySteadyAfter = steadyAfter;
+		}
+
+		/**
+		 * Number of queries run.
+		 */
+		public int getQueries() {
+			return myQueries;
+		}
+
+		public long getElapsedNanos() {
+			return myElapsedNanos;
+		}
+
+		/**
+		 * Mean latency over the first pass through the query mix, in
+		 * nanoseconds per query.
+		 */
+		public double getColdNanosPerQuery() {
+			return myColdNanos;
+		}
+
+		/**
+		 * Mean latency over the last pass through the query mix (the most
+		 * recent timing of each batch), in nanoseconds per query.
+		 */
+		public double getWarmNanosPerQuery() {
+			return myWarmNanos;
+		}
+
+		public boolean isSteady() {
+			return mySteadyAfter >= 0;
+		}
+
+		/**
+		 * Number of queries after which latency was steady, or -1 if the
+		 * budget ran out first.
+		 */
+		public int getSteadyAfter() {
+			return mySteadyAfter;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d queries in %.3f s, cold %.1f us/query, warm %.1f us/query, %s", myQueries,
+					myElapsedNanos / 1E9, myColdNanos / 1E3, myWarmNanos / 1E3,
+					isSteady() ? "steady after " + mySteadyAfter + " queries" : "not steady within budget");
+		}
+	}
+
+	/**
+	 * Runs the query mix against engine until steady state, or until
+	 * maxQueries queries or maxMillis milliseconds have been spent.
+	 */
+	public Report warmUp(Autocomplete.Autocompletor engine, int maxQueries, long maxMillis) {
+		if (engine == null)
+			throw new NullPointerException("Engine is null");
+		if (maxQueries < 0 || maxMillis < 0)
+			throw new IllegalArgumentException("Negative budget");
+		long start = System.nanoTime();
+		long deadline = start + maxMillis * 1000000L;
+		// mean latency of each batch in the last pass over the mix
+		int cycle = Math.max(1, myQueries.length / BATCH_SIZE);
+		double[] pass = new double[cycle];
+		double coldSum = 0;
+		int queries = 0, batches = 0, stable = 0, steadyAfter = -1;
+		int sink = 0;
+		while (queries < maxQueries && System.nanoTime() < deadline) {
+			int batch = Math.min(BATCH_SIZE, maxQueries - queries);
+			long batchStart = System.nanoTime();
+			for (int i = 0; i < batch; i++) {
+				String prefix = myQueries[(queries + i) % myQueries.length];
+				// consume lazy results so that their iteration is compiled too
+				for (String match : engine.topMatches(prefix, myK))
+					sink += match.length();
+				if ((queries + i) % 4 == 0)
+					sink += engine.topMatch(prefix).length();
+			}
+			double mean = (double) (System.nanoTime() - batchStart) / batch;
+			int slot = batches % cycle;
+			// a batch is only compared with the same queries one pass earlier
+			if (batches >= cycle && Math.abs(mean - pass[slot]) <= STEADY_TOLERANCE * pass[slot])
+				stable++;
+			else
+				stable = 0;
+			pass[slot] = mean;
+			if (batches < cycle)
+				coldSum += mean;
+			queries += batch;
+			batches++;
+			if (stable >= STEADY_BATCHES) {
+				steadyAfter = queries;
+				break;
+			}
+		}
+		// publish the results so the JIT cannot drop the queries as dead code
+		mySink = sink;
+		int filled = Math.min(batches, cycle);
+		double warm = 0;
+		for (int i = 0; i < filled; i++)
+			warm += pass[i];
+		double cold = filled == 0 ? Double.NaN : coldSum / filled;
+		warm = filled == 0 ? Double.NaN : warm / filled;
+		return new Report(queries, System.nanoTime() - start, cold, warm, steadyAfter);
+	}
+}
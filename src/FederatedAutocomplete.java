@@ -0,0 +1,329 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An Autocompletor over several independent sources, e.g. product names,
+ * brand names and recent queries, each its own Autocompletor over its own
+ * terms. A term's federated weight combines, over the sources that hold it,
+ * its weight there times that source's multiplier, by summing them or by
+ * taking the largest; see Combine.
+ *
+ * topMatches() merges the sources with Fagin's threshold algorithm. Each
+ * source's own topMatches() is read lazily, one term at a time, always from
+ * the source whose last term was heaviest after scaling. A term seen for
+ * the first time is looked up in the other sources with weightOf() to get
+ * its full weight. No term not seen yet can weigh more than the threshold,
+ * the combination of the last scaled weight read from every source, so a
+ * candidate is returned as soon as it beats the threshold. Sources are
+ * read only as deep as the results requested need.
+ *
+ * Every source can be given a latency budget per query, covering all calls
+ * made to it. A source that has used up its budget is dropped for the rest
+ * of the query: it is read no further and counts as not holding the terms
+ * looked up afterwards. The results are then a best effort over what the
+ * sources managed to deliver. getBudgetOverruns() counts how often that
+ * happened.
+ *
+ * Term ids are per source, so a MatchFilter on ids is not supported.
+ */
+public class FederatedAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	/**
+	 * How the scaled weights of a term in several sources are combined.
+	 */
+	public enum Combine {
+		/**
+		 * Add them up, so terms found in several sources rank higher.
+		 */
+		SUM,
+		/**
+		 * Take the largest, so the best source for a term decides.
+		 */
+		MAX
+	}
+
+	private final Autocomplete.Autocompletor[] mySources;
+	private final double[] myMultipliers;
+
+	/**
+	 * Latency budget per query of each source in nanoseconds,
+	 * Long.MAX_VALUE for none.
+	 */
+	private final long[] myBudgets;
+
+	private final Combine myCombine;
+
+	/**
+	 * Number of queries in which each source ran out of budget.
+	 */
+	private final AtomicLongArray myOverruns;
+
+	/**
+	 * Sums the scaled weights, with no latency budgets.
+	 */
+	public FederatedAutocomplete(Autocomplete.Autocompletor[] sources, double[] multipliers) {
+		this(sources, multipliers, null, Combine.SUM);
+	}
+
+	/**
+	 * @param sources
+	 *            - The engines to federate
+	 * @param multipliers
+	 *            - The factor applied to the weights of each source
+	 * @param budgetNanos
+	 *            - The latency budget per query of each source in
+	 *            nanoseconds, or null for none
+	 * @param combine
+	 *            - How the scaled weights of a term are combined
+	 * @throws NullPointerException
+	 *             if sources, multipliers, combine or any source is null
+	 * @throws IllegalArgumentException
+	 *             if there are no sources, the arrays differ in length, a
+	 *             multiplier is negative or not a number or a budget is not
+	 *             positive
+	 */
+	public FederatedAutocomplete(Autocomplete.Autocompletor[] sources, double[] multipliers, long[] budgetNanos,
+			Combine combine) {
+		if (sources == null || multipliers == null || combine == null)
+			throw new NullPointerException("One or more arguments null");
+		if (sources.length == 0)
+			throw new IllegalArgumentException("No sources to federate");
+		if (multipliers.length != sources.length || (budgetNanos != null && budgetNanos.length != sources.length))
+			throw new IllegalArgumentException("sources, multipliers and budgets are not the same length");
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i] == null)
+				throw new NullPointerException("One or more arguments null");
+			if (!(multipliers[i] >= 0))
+				throw new IllegalArgumentException("Illegal multiplier " + multipliers[i]);
+			if (budgetNanos != null && budgetNanos[i] <= 0)
+				throw new IllegalArgumentException("Illegal budget " + budgetNanos[i]);
+		}
+		mySources = sources.clone();
+		myMultipliers = multipliers.clone();
+		if (budgetNanos == null) {
+			myBudgets = new long[sources.length];
+			Arrays.fill(myBudgets, Long.MAX_VALUE);
+		} else
+			myBudgets = budgetNanos.clone();
+		myCombine = combine;
+		myOverruns = new AtomicLongArray(sources.length);
+	}
+
+	/**
+	 * Number of sources.
+	 */
+	public int size() {
+		return mySources.length;
+	}
+
+	/**
+	 * Number of queries so far in which source i ran out of its budget.
+	 */
+	public long getBudgetOverruns(int i) {
+		return myOverruns.get(i);
+	}
+
+	private double combine(double a, double b) {
+		return myCombine == Combine.SUM ? a + b : Math.max(a, b);
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return topMatches(prefix, k, MatchFilter.NONE);
+	}
+
+	/**
+	 * Like topMatches(prefix, k), with filter applied to the federated
+	 * weights. The sources are read unfiltered, but reading stops once the
+	 * threshold drops below the filter's minimum weight.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if filter uses term ids
+	 */
+	public Iterable<String> topMatches(final String prefix, final int k, final MatchFilter filter) {
+		if (prefix == null || filter == null)
+			throw new NullPointerException("One or more arguments null");
+		if (k < 0)
+			throw new IllegalArgumentException("Illegal value of k:" + k);
+		if (filter.usesIds())
+			throw new IllegalArgumentException("Term ids are per source and cannot be filtered on");
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new ThresholdIterator(prefix, k, filter);
+			}
+		};
+	}
+
+	/**
+	 * Runs the threshold algorithm for one query, producing one result per
+	 * call to next().
+	 */
+	private class ThresholdIterator implements Iterator<String> {
+
+		private final String prefix;
+		private final MatchFilter filter;
+		private int remaining;
+
+		/**
+		 * Each source's result iterator, created on first use, and whether
+		 * it is still being read: it is not once it runs dry or over
+		 * budget.
+		 */
+		private final Iterator<String>[] streams;
+		private final boolean[] active;
+
+		/**
+		 * Scaled weight of the last term read from each source, which bounds
+		 * the terms it has not returned yet.
+		 */
+		private final double[] bounds;
+
+		/**
+		 * Time spent in each source so far in this query.
+		 */
+		private final long[] spent;
+
+		/**
+		 * Terms read from any source, and the ones still to be returned
+		 * with their federated weights, first in result order at the head.
+		 */
+		private final HashSet<String> seen = new HashSet<String>();
+		private final PriorityQueue<Term> candidates = new PriorityQueue<Term>(new Term.ReverseWeightOrder());
+
+		@SuppressWarnings("unchecked")
+		ThresholdIterator(String prefix, int k, MatchFilter filter) {
+			this.prefix = prefix;
+			this.filter = filter;
+			remaining = k;
+			int n = mySources.length;
+			streams = (Iterator<String>[]) new Iterator<?>[n];
+			active = new boolean[n];
+			bounds = new double[n];
+			spent = new long[n];
+			Arrays.fill(active, k > 0);
+			Arrays.fill(bounds, Double.POSITIVE_INFINITY);
+		}
+
+		public boolean hasNext() {
+			if (remaining <= 0)
+				return false;
+			while (true) {
+				Term best = candidates.peek();
+				double threshold = threshold();
+				// An unseen term can weigh as much as the threshold and still
+				// come first on a tie, so the candidate must beat it strictly.
+				if (best != null && (best.getWeight() > threshold || threshold < filter.getMinWeight()))
+					return true;
+				int source = nextSource();
+				if (source < 0 || threshold < filter.getMinWeight())
+					return best != null;
+				read(source);
+			}
+		}
+
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			remaining--;
+			return candidates.poll().getWord();
+		}
+
+		/**
+		 * The most an unseen term can weigh: the combination of the active
+		 * sources' bounds. A source that ran dry has returned everything it
+		 * holds; one that ran over budget is assumed to hold nothing more.
+		 */
+		private double threshold() {
+			double threshold = 0;
+			for (int i = 0; i < bounds.length; i++)
+				if (active[i])
+					threshold = combine(threshold, bounds[i]);
+			return threshold;
+		}
+
+		/**
+		 * The active source with the highest bound, which lowers the
+		 * threshold most when read, or -1 if none is left.
+		 */
+		private int nextSource() {
+			int best = -1;
+			for (int i = 0; i < bounds.length; i++)
+				if (active[i] && (best < 0 || bounds[i] > bounds[best]))
+					best = i;
+			return best;
+		}
+
+		/**
+		 * Reads the next term from source i and, if it is new, looks it up
+		 * in the other sources and queues it as a candidate.
+		 */
+		private void read(int i) {
+			long start = System.nanoTime();
+			if (streams[i] == null)
+				streams[i] = mySources[i].topMatches(prefix, Integer.MAX_VALUE).iterator();
+			String word = streams[i].hasNext() ? streams[i].next() : null;
+			double scaled = word == null ? 0 : mySources[i].weightOf(word) * myMultipliers[i];
+			charge(i, start);
+			if (word == null) {
+				active[i] = false;
+				return;
+			}
+			bounds[i] = scaled;
+			if (!seen.add(word))
+				return;
+			// Combined in source order, like the threshold and weightOf(),
+			// so that rounding cannot lift a term above the threshold.
+			double weight = 0;
+			for (int j = 0; j < mySources.length; j++) {
+				if (j == i) {
+					weight = combine(weight, scaled);
+				} else if (active[j]) {
+					// A dry source would already have returned word if it held it.
+					start = System.nanoTime();
+					weight = combine(weight, mySources[j].weightOf(word) * myMultipliers[j]);
+					charge(j, start);
+				}
+			}
+			if (filter.acceptsWeight(weight) && filter.acceptsWord(word))
+				candidates.add(new Term(word, weight));
+		}
+
+		/**
+		 * Adds the time since start to source i and drops it if that puts
+		 * it over its budget.
+		 */
+		private void charge(int i, long start) {
+			spent[i] += System.nanoTime() - start;
+			if (active[i] && spent[i] > myBudgets[i]) {
+				active[i] = false;
+				myOverruns.incrementAndGet(i);
+			}
+		}
+	}
+
+	public String topMatch(String prefix) {
+		Iterator<String> it = topMatches(prefix, 1).iterator();
+		return it.hasNext() ? it.next() : "";
+	}
+
+	/**
+	 * The federated weight of term: its scaled weights in all sources,
+	 * combined. Not subject to the latency budgets.
+	 */
+	public double weightOf(String term) {
+		if (term == null)
+			throw new NullPointerException("Term is null.");
+		double weight = 0;
+		for (int i = 0; i < mySources.length; i++)
+			weight = combine(weight, mySources[i].weightOf(term) * myMultipliers[i]);
+		return weight;
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		for (Autocomplete.Autocompletor source : mySources)
+			footprint.addMeasurable(source);
+	}
+}
@@ -0,0 +1,331 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary-search Autocompletor that stores its sorted terms front-coded.
+ * Sorted neighbours share long prefixes ("Christopher", "Christy",
+ * "Christian"), so the terms are cut into blocks of BLOCK_SIZE; the first
+ * term of a block is stored in full and every other term as the number of
+ * leading UTF-8 bytes it shares with the term before it plus the bytes that
+ * differ.
+ * 
+ * The block heads are sampled into myBlocks, so a lookup binary searches the
+ * heads, comparing them in place, and then decodes at most one block
+ * sequentially. Range lookup stays logarithmic while the term text usually
+ * shrinks to a fraction of its UTF-8 size. Order is unsigned byte order as
+ * in Utf8BinarySearchAutocomplete, and a RangeMaxIndex over the sorted
+ * weights gives the matches in weight order. As there, terms with an
+ * unpaired surrogate are rejected, since they have no UTF-8 form.
+ */
+public class FrontCodedAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	static final int BLOCK_SIZE = 16;
+
+	/**
+	 * The encoded blocks. A head is varint length + bytes, the rest of a
+	 * block's terms varint shared + varint suffix length + suffix bytes.
+	 */
+	private final byte[] myData;
+
+	/**
+	 * myBlocks[b] is the offset in myData of block b's head.
+	 */
+	private final int[] myBlocks;
+
+	/**
+	 * myIds[i] is the index in the constructor's arrays of sorted term i.
+	 */
+	private final int[] myIds;
+
+	private final RangeMaxIndex myMaxIndex;
+
+	/**
+	 * Builds the engine with weights compared as dense ranks, which is
+	 * lossless.
+	 */
+	public FrontCodedAutocomplete(String[] terms, double[] weights) {
+		this(terms, weights, RangeMaxIndex.Precision.RANK);
+	}
+
+	/**
+	 * Builds the engine with weights compared at the given precision inside
+	 * the range-max index. weightOf() always returns the original weights.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the arrays differ in length, a weight is negative, a
+	 *             term holds an unpaired surrogate or occurs twice
+	 */
+	public FrontCodedAutocomplete(String[] terms, double[] weights, RangeMaxIndex.Precision precision) {
+		if (terms == null || weights == null || precision == null)
+			throw new NullPointerException("One or more arguments null");
+		if (terms.length != weights.length)
+			throw new IllegalArgumentException("terms and weights are not the same length");
+		final byte[][] encoded = new byte[terms.length][];
+		Integer[] order = new Integer[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			if (weights[i] < 0)
+				throw new IllegalArgumentException("Negative weight " + weights[i]);
+			encoded[i] = Utf8BinarySearchAutocomplete.encode(terms[i]);
+			if (encoded[i] == null)
+				throw new IllegalArgumentException("Unpaired surrogate in term " + i);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Arrays.compareUnsigned(encoded[a], encoded[b]);
+			}
+		});
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		myBlocks = new int[(terms.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		myIds = new int[terms.length];
+		double[] sortedWeights = new double[terms.length];
+		byte[] previous = null;
+		for (int i = 0; i < terms.length; i++) {
+			byte[] term = encoded[order[i]];
+			if (i > 0 && Arrays.equals(term, encoded[order[i - 1]]))
+				throw new IllegalArgumentException("Duplicate input terms");
+			if (i % BLOCK_SIZE == 0) {
+				myBlocks[i / BLOCK_SIZE] = out.size();
+				putVarint(out, term.length);
+				out.write(term, 0, term.length);
+			} else {
+				int shared = Arrays.mismatch(previous, term);
+				if (shared < 0)
+					shared = term.length;
+				putVarint(out, shared);
+				putVarint(out, term.length - shared);
+				out.write(term, shared, term.length - shared);
+			}
+			previous = term;
+			myIds[i] = order[i];
+			sortedWeights[i] = weights[order[i]];
+		}
+		myData = out.toByteArray();
+		myMaxIndex = new RangeMaxIndex(sortedWeights, precision, Utf8BinarySearchAutocomplete.tieRanks(terms, order));
+	}
+
+	private static void putVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Walks the terms of one block, rebuilding each in a reusable buffer.
+	 */
+	private class BlockReader {
+		byte[] myTerm = new byte[64];
+		int myLength;
+		private int myPos;
+		private int myIndex;
+		private int myEnd;
+
+		/**
+		 * Positions the reader on the head of block b.
+		 */
+		void seek(int b) {
+			myPos = myBlocks[b];
+			myIndex = b * BLOCK_SIZE;
+			myEnd = Math.min(myIndex + BLOCK_SIZE, myIds.length);
+			int length = varint();
+			copy(0, length);
+		}
+
+		/**
+		 * Advances to the next term of the block; false at its end.
+		 */
+		boolean next() {
+			if (myIndex + 1 >= myEnd)
+				return false;
+			myIndex++;
+			int shared = varint();
+			copy(shared, varint());
+			return true;
+		}
+
+		int index() {
+			return myIndex;
+		}
+
+		/**
+		 * Positions the reader on sorted term i.
+		 */
+		void moveTo(int i) {
+			seek(i / BLOCK_SIZE);
+			while (myIndex < i)
+				next();
+		}
+
+		private void copy(int shared, int suffix) {
+			myLength = shared + suffix;
+			if (myLength > myTerm.length)
+				myTerm = Arrays.copyOf(myTerm, Math.max(myLength, 2 * myTerm.length));
+			System.arraycopy(myData, myPos, myTerm, shared, suffix);
+			myPos += suffix;
+		}
+
+		private int varint() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = myData[myPos++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return value;
+			}
+		}
+
+		int compare(byte[] key, boolean prefix) {
+			int to = prefix ? Math.min(myLength, key.length) : myLength;
+			return Arrays.compareUnsigned(myTerm, 0, to, key, 0, key.length);
+		}
+
+		String decode() {
+			return new String(myTerm, 0, myLength, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Compares the head of block b with key in place, looking at no more than
+	 * key.length bytes of it if prefix is set.
+	 */
+	private int compareHead(int b, byte[] key, boolean prefix) {
+		int pos = myBlocks[b];
+		int length = 0;
+		for (int shift = 0;; shift += 7) {
+			byte c = myData[pos++];
+			length |= (c & 0x7F) << shift;
+			if (c >= 0)
+				break;
+		}
+		if (prefix && length > key.length)
+			length = key.length;
+		return Arrays.compareUnsigned(myData, pos, pos + length, key, 0, key.length);
+	}
+
+	/**
+	 * Returns the first sorted index whose term compares above key (or not
+	 * below it, unless strict), or the number of terms if there is none.
+	 */
+	private int search(byte[] key, boolean prefix, boolean strict, BlockReader reader) {
+		int beg = 0, end = myBlocks.length - 1;
+		int block = -1;
+		while (beg <= end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compareHead(mid, key, prefix);
+			if (cmp > 0 || (cmp == 0 && !strict))
+				end = mid - 1;
+			else {
+				block = mid;
+				beg = mid + 1;
+			}
+		}
+		if (block < 0)
+			return 0;
+		// the head of block is below key; the answer is in the block or just past it
+		reader.seek(block);
+		while (reader.next()) {
+			int cmp = reader.compare(key, prefix);
+			if (cmp > 0 || (cmp == 0 && !strict))
+				return reader.index();
+		}
+		return Math.min((block + 1) * BLOCK_SIZE, myIds.length);
+	}
+
+	String termAt(int i) {
+		BlockReader reader = new BlockReader();
+		reader.moveTo(i);
+		return reader.decode();
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return topMatches(prefix, k, MatchFilter.NONE);
+	}
+
+	public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter) {
+		if (prefix == null || filter == null)
+			throw new NullPointerException("One or more arguments null");
+		if (k < 0)
+			throw new IllegalArgumentException("Illegal value of k:" + k);
+		byte[][] keys = Utf8BinarySearchAutocomplete.keyRange(prefix);
+		if (keys == null || k == 0)
+			return new ArrayList<String>();
+		BlockReader reader = new BlockReader();
+		final int f = search(keys[0], true, false, reader);
+		final int l = search(keys[1], true, true, reader) - 1;
+		if (f > l || k == 0)
+			return new ArrayList<String>();
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private final RangeMaxIndex.Cursor cursor = myMaxIndex.cursor(f, l, filter.getMinWeight());
+					private int remaining = k;
+					private String pending;
+
+					public boolean hasNext() {
+						while (pending == null && remaining > 0) {
+							int i = cursor.next();
+							if (i < 0)
+								break;
+							if (!filter.acceptsId(myIds[i]))
+								continue;
+							String word = termAt(i);
+							if (filter.acceptsWord(word))
+								pending = word;
+						}
+						return pending != null;
+					}
+
+					public String next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						String word = pending;
+						pending = null;
+						remaining--;
+						return word;
+					}
+				};
+			}
+		};
+	}
+
+	public String topMatch(String prefix) {
+		if (prefix == null)
+			throw new NullPointerException();
+		byte[][] keys = Utf8BinarySearchAutocomplete.keyRange(prefix);
+		if (keys == null)
+			return "";
+		BlockReader reader = new BlockReader();
+		int f = search(keys[0], true, false, reader);
+		int l = search(keys[1], true, true, reader) - 1;
+		if (f > l)
+			return "";
+		return termAt(myMaxIndex.argMax(f, l));
+	}
+
+	public double weightOf(String term) {
+		byte[] key = Utf8BinarySearchAutocomplete.encode(term);
+		if (key == null)
+			return 0.0;
+		BlockReader reader = new BlockReader();
+		int i = search(key, false, false, reader);
+		if (i >= myIds.length)
+			return 0.0;
+		// Compare in the reader's buffer rather than decoding a String.
+		reader.moveTo(i);
+		return reader.compare(key, false) == 0 ? myMaxIndex.weight(i) : 0.0;
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		footprint.addArray("front-coded blocks", myData);
+		footprint.addArray("block index", myBlocks);
+		footprint.addArray("arrays", myIds);
+		footprint.addMeasurable(myMaxIndex);
+	}
+}
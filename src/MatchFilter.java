@@ -0,0 +1,104 @@
+import java.util.BitSet;
+import java.util.function.Predicate;
+
+/**
+ * Constraints on the terms a constrained top-k query may return: a minimum
+ * weight, an allow list and a deny list of term ids, and an arbitrary
+ * predicate on the word. Any of them may be left out.
+ * 
+ * A term's id is its index in the arrays (or TermDictionary) the engine was
+ * built from. Terms added afterwards, e.g. through
+ * IncrementalBinarySearchAutocomplete.put(), have no id (-1). They never
+ * pass an allow list, and they pass any deny list.
+ * 
+ * Engines check the minimum weight first, since it lets them skip whole
+ * subtries or ranges, then the id lists, and call the predicate last.
+ */
+public class MatchFilter {
+
+	/**
+	 * A filter that accepts every term.
+	 */
+	public static final MatchFilter NONE = new MatchFilter(0, null, null, null);
+
+	private final double myMinWeight;
+	private final BitSet myAllowed;
+	private final BitSet myDenied;
+	private final Predicate<String> myPredicate;
+
+	/**
+	 * @param minWeight
+	 *            - Terms lighter than this are rejected
+	 * @param allowed
+	 *            - If non-null, only terms whose id is set are accepted
+	 * @param denied
+	 *            - If non-null, terms whose id is set are rejected
+	 * @param predicate
+	 *            - If non-null, only words it accepts are accepted
+	 */
+	public MatchFilter(double minWeight, BitSet allowed, BitSet denied, Predicate<String> predicate) {
+		myMinWeight = minWeight;
+		myAllowed = allowed;
+		myDenied = denied;
+		myPredicate = predicate;
+	}
+
+	/**
+	 * A filter that only rejects terms lighter than minWeight.
+	 */
+	public static MatchFilter minWeight(double minWeight) {
+		return new MatchFilter(minWeight, null, null, null);
+	}
+
+	public double getMinWeight() {
+		return myMinWeight;
+	}
+
+	/**
+	 * Whether this filter can reject terms by id, so engines that do not
+	 * track ids must not be used with it.
+	 */
+	public boolean usesIds() {
+		return myAllowed != null || myDenied != null;
+	}
+
+	/**
+	 * Whether this filter has a predicate, so engines that hold ids rather
+	 * than Strings know whether a word has to be materialised.
+	 */
+	public boolean hasPredicate() {
+		return myPredicate != null;
+	}
+
+	/**
+	 * Whether anything heavier than or as heavy as weight may still pass.
+	 * Engines use this to prune subtrees and ranges by their maximum weight.
+	 */
+	public boolean acceptsWeight(double weight) {
+		return weight >= myMinWeight;
+	}
+
+	/**
+	 * Whether the term with the given id passes the allow and deny lists.
+	 */
+	public boolean acceptsId(int id) {
+		if (myAllowed != null && (id < 0 || !myAllowed.get(id)))
+			return false;
+		return myDenied == null || id < 0 || !myDenied.get(id);
+	}
+
+	/**
+	 * Whether the term passes every constraint.
+	 */
+	public boolean accepts(int id, String word, double weight) {
+		return acceptsWeight(weight) && acceptsId(id) && (myPredicate == null || myPredicate.test(word));
+	}
+
+	/**
+	 * Whether the word passes the predicate. Engines that hold ids rather
+	 * than Strings check the other constraints first and call this last.
+	 */
+	public boolean acceptsWord(String word) {
+		return myPredicate == null || myPredicate.test(word);
+	}
+}
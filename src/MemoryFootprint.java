@@ -0,0 +1,165 @@
+import java.lang.reflect.Array;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analytical estimate of the memory an Autocompletor retains, broken down by
+ * component ("nodes", "strings", "arrays" and so on). Engines that implement
+ * Measurable add their parts; the sizes follow the layout of a 64-bit
+ * HotSpot JVM with compressed references and compact strings: 12-byte
+ * object headers, 16-byte array headers, 4-byte references and everything
+ * padded to 8 bytes.
+ * 
+ * Every String, array and Measurable is counted once however many
+ * components reach it, so terms shared by several engines (or by an engine
+ * and its wrapper) are not counted twice. Shared executors and other
+ * objects that outlive the engine are left out.
+ */
+public class MemoryFootprint {
+
+	/**
+	 * An object that can report what it retains.
+	 */
+	public interface Measurable {
+		/**
+		 * Adds the memory this object retains to footprint.
+		 */
+		void measure(MemoryFootprint footprint);
+	}
+
+	static final int OBJECT_HEADER = 12;
+	static final int ARRAY_HEADER = 16;
+	static final int REFERENCE = 4;
+	static final int ALIGNMENT = 8;
+
+	/**
+	 * Shallow size of a String: header, value reference, hash and coder.
+	 */
+	static final long STRING = align(OBJECT_HEADER + REFERENCE + 4 + 1);
+
+	/**
+	 * Shallow size of a HashMap entry: hash, key, value and next.
+	 */
+	static final long HASH_MAP_ENTRY = align(OBJECT_HEADER + 4 + 3 * REFERENCE);
+
+	private final LinkedHashMap<String, Long> myComponents = new LinkedHashMap<String, Long>();
+	private final Set<Object> mySeen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	/**
+	 * Measures engine, or counts nothing if it cannot report its size.
+	 */
+	public static MemoryFootprint of(Object engine) {
+		MemoryFootprint footprint = new MemoryFootprint();
+		footprint.addMeasurable(engine);
+		return footprint;
+	}
+
+	static long align(long bytes) {
+		return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 * Size of an object with the given numbers of reference and 8-, 4-, 2-
+	 * and 1-byte primitive fields.
+	 */
+	static long objectSize(int references, int longs, int ints, int chars, int bytes) {
+		return align(OBJECT_HEADER + (long) REFERENCE * references + 8L * longs + 4L * ints + 2L * chars + bytes);
+	}
+
+	static long arraySize(int length, int elementSize) {
+		return align(ARRAY_HEADER + (long) length * elementSize);
+	}
+
+	public void add(String component, long bytes) {
+		Long current = myComponents.get(component);
+		myComponents.put(component, current == null ? bytes : current + bytes);
+	}
+
+	/**
+	 * Adds the shallow size of array to component, unless it is null or was
+	 * counted before.
+	 */
+	public void addArray(String component, Object array) {
+		if (array == null || !mySeen.add(array))
+			return;
+		Class<?> type = array.getClass().getComponentType();
+		int elementSize;
+		if (type == long.class || type == double.class)
+			elementSize = 8;
+		else if (type == int.class || type == float.class)
+			elementSize = 4;
+		else if (type == char.class || type == short.class)
+			elementSize = 2;
+		else if (type == byte.class || type == boolean.class)
+			elementSize = 1;
+		else
+			elementSize = REFERENCE;
+		add(component, arraySize(Array.getLength(array), elementSize));
+	}
+
+	/**
+	 * Adds s and its character array to component, unless it is null or was
+	 * counted before. Strings of Latin-1 characters take a byte per char.
+	 */
+	public void addString(String component, String s) {
+		if (s == null || !mySeen.add(s))
+			return;
+		int elementSize = 1;
+		for (int i = 0; i < s.length(); i++)
+			if (s.charAt(i) > 0xFF) {
+				elementSize = 2;
+				break;
+			}
+		add(component, STRING + arraySize(s.length(), elementSize));
+	}
+
+	/**
+	 * Adds a Term, its String included.
+	 */
+	public void addTerm(String component, String stringComponent, Term term) {
+		if (term == null || !mySeen.add(term))
+			return;
+		add(component, objectSize(1, 1, 0, 0, 0));
+		addString(stringComponent, term.getWord());
+	}
+
+	/**
+	 * Adds the structure of a HashMap with size entries, keys and values not
+	 * included.
+	 */
+	public void addHashMap(String component, int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, (int) (size / 0.75f)) * 2 - 1);
+		add(component, objectSize(4, 0, 4, 0, 0) + arraySize(capacity, REFERENCE) + size * HASH_MAP_ENTRY);
+	}
+
+	/**
+	 * Lets o add itself if it is Measurable and was not counted before.
+	 */
+	public void addMeasurable(Object o) {
+		if (o instanceof Measurable && mySeen.add(o))
+			((Measurable) o).measure(this);
+	}
+
+	public Map<String, Long> components() {
+		return Collections.unmodifiableMap(myComponents);
+	}
+
+	public long total() {
+		long total = 0;
+		for (long bytes : myComponents.values())
+			total += bytes;
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> e : myComponents.entrySet())
+			sb.append(String.format("%-20s %,14d bytes%n", e.getKey(), e.getValue()));
+		sb.append(String.format("%-20s %,14d bytes", "total", total()));
+		return sb.toString();
+	}
+}
@@ -1,6 +1,5 @@
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Node in a general trie, each representing a character. Each node will keep
@@ -27,25 +26,91 @@ public class Node implements Comparable<Node> {
 	 */
 	String myWord;
 
+	/**
+	 * Id of the word ending at this Node in the trie's TermDictionary, for
+	 * tries built from one; myWord is then left null. -1 otherwise.
+	 */
+	int myWordId = -1;
+
 	/**
 	 * Only positive/interpretable if isWord is true. Represents the weight of
 	 * myWord.
 	 */
 	double myWeight = -1;
 
+	/**
+	 * Only interpretable if isWord is true. Position of myWord among the
+	 * trie's words in lexicographic order, which is the order a pre-order
+	 * walk meets them in. Of two words of equal weight the one with the lower
+	 * rank comes first, so ties are settled by one int compare instead of a
+	 * String compare. Set by TrieAutocomplete once all words are in.
+	 */
+	int myTieRank;
+
 	/**
 	 * The maximum weight of any Node rooted at this Node (i.e. in this Nodes
 	 * subtrie, including this Node itself).
 	 */
 	double mySubtreeMaxWeight;
 
-	Map<Character, Node> children;
+	/**
+	 * The word Node with the largest weight in this Node's subtrie (possibly
+	 * this Node itself), the lowest myTieRank among equals, or null if the
+	 * subtrie holds no words. Its weight is mySubtreeMaxWeight.
+	 */
+	Node myBestWord;
+
+	/**
+	 * Children are kept as two parallel arrays sorted by label: myLabels[i] is
+	 * the character of myChildren[i]. Only the first myChildCount entries are
+	 * in use. Lookups binary search myLabels, which for the small fanouts found
+	 * below the first couple of trie levels touches one or two cache lines.
+	 */
+	char[] myLabels;
+	Node[] myChildren;
+	int myChildCount;
+
+	/**
+	 * Dense lookup table used once the fanout grows past SMALL_FANOUT and the
+	 * labels fit into a span of at most MAX_TABLE_SPAN characters. Entry
+	 * (c - myTableBase) holds the child labelled c, or null. The sorted arrays
+	 * are still maintained for ordered iteration.
+	 */
+	Node[] myTable;
+	char myTableBase;
+
+	/**
+	 * The children sorted by their best words in result order, i.e. by
+	 * descending mySubtreeMaxWeight with ties by tie rank, in the first
+	 * myChildCount entries. Kept in order as children are added and their
+	 * weights change, so that queries only ever read it.
+	 */
+	Node[] myByWeight;
+
+	/**
+	 * Position of this Node in its parent's myByWeight array.
+	 */
+	int myRank;
+
 	Node parent;
 
+	private static final Comparator<Node> BY_WEIGHT = new ReverseSubtreeMaxWeightComparator();
+
+	/**
+	 * Shared myInfo Strings for the Latin-1 labels, so that creating a Node
+	 * does not build a String in the common case.
+	 */
+	private static final String[] LABELS = new String[256];
+	static {
+		for (char c = 0; c < LABELS.length; c++)
+			LABELS[c] = String.valueOf(c);
+	}
+	private static final int SMALL_FANOUT = 8;
+	private static final int MAX_TABLE_SPAN = 256;
+
 	public Node(char character, Node parentNode, double subtreeMaximumWeight) {
-		myInfo = "" + character;
+		myInfo = character < LABELS.length ? LABELS[character] : String.valueOf(character);
 		isWord = false;
-		children = new HashMap<Character, Node>();
 		parent = parentNode;
 		mySubtreeMaxWeight = subtreeMaximumWeight;
 	}
@@ -74,11 +139,242 @@ public class Node implements Comparable<Node> {
 		return myWeight;
 	}
 
+	/**
+	 * Returns the word Node with the largest weight in this Node's subtrie, or
+	 * null if there is none.
+	 */
+	public Node getBestWord() {
+		return myBestWord;
+	}
+
+	/**
+	 * Updates myBestWord and mySubtreeMaxWeight after the weight of word, a
+	 * word Node in this Node's subtrie, was set. If word was the best word and
+	 * got lighter, the best word is recomputed from this Node and its
+	 * children, which must already be up to date.
+	 * 
+	 * @return true if this Node changed, so its ancestors need to be updated
+	 */
+	boolean offerBestWord(Node word) {
+		Node best = myBestWord;
+		if (best == word) {
+			best = bestOfSelfAndChildren();
+		} else if (precedes(word, best)) {
+			best = word;
+		} else {
+			return false;
+		}
+		double weight = best == null ? 0 : best.myWeight;
+		if (best == myBestWord && weight == mySubtreeMaxWeight)
+			return false;
+		myBestWord = best;
+		mySubtreeMaxWeight = weight;
+		if (parent != null)
+			parent.placeByWeight(this);
+		return true;
+	}
+
+	/**
+	 * Sets myBestWord and mySubtreeMaxWeight from this Node's own word and its
+	 * children's best words, which must already be up to date, and re-sorts
+	 * the children by weight. Used when a trie is assembled bottom-up rather
+	 * than through repeated adds.
+	 */
+	void recomputeBestWord() {
+		myBestWord = bestOfSelfAndChildren();
+		mySubtreeMaxWeight = myBestWord == null ? 0 : myBestWord.myWeight;
+		sortChildrenByWeight();
+	}
+
+	private Node bestOfSelfAndChildren() {
+		Node best = isWord ? this : null;
+		for (int i = 0; i < myChildCount; i++) {
+			Node candidate = myChildren[i].myBestWord;
+			if (candidate != null && precedes(candidate, best))
+				best = candidate;
+		}
+		return best;
+	}
+
+	/**
+	 * Whether word Node a comes before b (which may be null) in result order:
+	 * heavier, or as heavy with a lower myTieRank.
+	 */
+	static boolean precedes(Node a, Node b) {
+		if (b == null || a.myWeight > b.myWeight)
+			return true;
+		return a.myWeight == b.myWeight && a.myTieRank < b.myTieRank;
+	}
+
 	/**
 	 * Returns null if key is not a valid child.
 	 */
 	Node getChild(char ch) {
-		return children.get(ch);
+		if (myTable != null) {
+			int slot = ch - myTableBase;
+			return slot >= 0 && slot < myTable.length ? myTable[slot] : null;
+		}
+		int i = indexOf(ch);
+		return i >= 0 ? myChildren[i] : null;
+	}
+
+	/**
+	 * Adds child under label ch, replacing any existing child with that label.
+	 */
+	void putChild(char ch, Node child) {
+		int i = indexOf(ch);
+		if (i >= 0) {
+			child.myRank = myChildren[i].myRank;
+			myChildren[i] = child;
+		} else {
+			i = -(i + 1);
+			if (myLabels == null) {
+				myLabels = new char[2];
+				myChildren = new Node[2];
+				myByWeight = new Node[2];
+			} else if (myChildCount == myLabels.length) {
+				myLabels = Arrays.copyOf(myLabels, myChildCount * 2);
+				myChildren = Arrays.copyOf(myChildren, myChildCount * 2);
+				myByWeight = Arrays.copyOf(myByWeight, myChildCount * 2);
+			}
+			System.arraycopy(myLabels, i, myLabels, i + 1, myChildCount - i);
+			System.arraycopy(myChildren, i, myChildren, i + 1, myChildCount - i);
+			myLabels[i] = ch;
+			myChildren[i] = child;
+			child.myRank = myChildCount++;
+		}
+		myByWeight[child.myRank] = child;
+		placeByWeight(child);
+		if (myChildCount > SMALL_FANOUT)
+			rebuildTable();
+	}
+
+	/**
+	 * Gives this Node room for exactly n children, which must then be added
+	 * with appendChild() in ascending label order. Used when a trie is loaded
+	 * in bulk, where the sizes are known up front and putChild()'s searches
+	 * and copies are wasted work.
+	 */
+	void reserveChildren(int n) {
+		myLabels = new char[n];
+		myChildren = new Node[n];
+		myByWeight = new Node[n];
+	}
+
+	/**
+	 * Adds child after the existing children; ch must be greater than their
+	 * labels and there must be room, see reserveChildren(). The weight order
+	 * is not maintained: call sortChildrenByWeight() once the children's
+	 * best words are known.
+	 */
+	void appendChild(char ch, Node child) {
+		myLabels[myChildCount] = ch;
+		myByWeight[myChildCount] = child;
+		myChildren[myChildCount++] = child;
+		if (myChildCount == myLabels.length && myChildCount > SMALL_FANOUT)
+			rebuildTable();
+	}
+
+	/**
+	 * Number of children of this Node.
+	 */
+	int childCount() {
+		return myChildCount;
+	}
+
+	/**
+	 * Returns the i-th child in ascending label order.
+	 */
+	Node childAt(int i) {
+		return myChildren[i];
+	}
+
+	/**
+	 * Returns the label of the i-th child in ascending label order.
+	 */
+	char labelAt(int i) {
+		return myLabels[i];
+	}
+
+	/**
+	 * Returns the child whose subtrie holds the heaviest word, or null if
+	 * this Node has no children. A best-first search pushes only this child
+	 * and then walks on to the lighter ones with nextSiblingByWeight().
+	 */
+	Node firstChildByWeight() {
+		return myChildCount > 0 ? myByWeight[0] : null;
+	}
+
+	/**
+	 * Returns the sibling following this Node in its parent's weight order,
+	 * or null if this Node is the lightest child.
+	 */
+	Node nextSiblingByWeight() {
+		if (parent == null)
+			return null;
+		int next = myRank + 1;
+		return next < parent.myChildCount ? parent.myByWeight[next] : null;
+	}
+
+	/**
+	 * Sorts all children by weight. The children's mySubtreeMaxWeight and
+	 * best words must already be up to date.
+	 */
+	void sortChildrenByWeight() {
+		if (myChildCount == 0)
+			return;
+		System.arraycopy(myChildren, 0, myByWeight, 0, myChildCount);
+		Arrays.sort(myByWeight, 0, myChildCount, BY_WEIGHT);
+		for (int i = 0; i < myChildCount; i++)
+			myByWeight[i].myRank = i;
+	}
+
+	/**
+	 * Moves child, whose mySubtreeMaxWeight or best word just changed, to its
+	 * place in the weight order. The other children must still be in order.
+	 */
+	private void placeByWeight(Node child) {
+		Node[] order = myByWeight;
+		int r = child.myRank;
+		for (; r > 0 && BY_WEIGHT.compare(child, order[r - 1]) < 0; r--) {
+			order[r] = order[r - 1];
+			order[r].myRank = r;
+		}
+		for (; r < myChildCount - 1 && BY_WEIGHT.compare(child, order[r + 1]) > 0; r++) {
+			order[r] = order[r + 1];
+			order[r].myRank = r;
+		}
+		order[r] = child;
+		child.myRank = r;
+	}
+
+	private int indexOf(char ch) {
+		int lo = 0, hi = myChildCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			char label = myLabels[mid];
+			if (label < ch)
+				lo = mid + 1;
+			else if (label > ch)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	private void rebuildTable() {
+		char lo = myLabels[0];
+		int span = myLabels[myChildCount - 1] - lo + 1;
+		if (span > MAX_TABLE_SPAN) {
+			myTable = null;
+			return;
+		}
+		Node[] table = new Node[span];
+		for (int i = 0; i < myChildCount; i++)
+			table[myLabels[i] - lo] = myChildren[i];
+		myTableBase = lo;
+		myTable = table;
 	}
 
 	@Override
@@ -88,18 +384,20 @@ public class Node implements Comparable<Node> {
 
 	@Override
 	public int compareTo(Node o) {
-		// Sort in weight ascending
+		// Sort in weight ascending, equal weights by descending tie rank, so
+		// that the greatest word Node is the first one in result order
 		if (this.myWeight < o.myWeight) {
 			return -1;
 		} else if (this.myWeight > o.myWeight) {
 			return 1;
 		} else {
-			return 0;
+			return Integer.compare(o.myTieRank, this.myTieRank);
 		}
 	}
 	/*
 	 * In reverse subtreeMaxWeight order to make the PriorityQueue (a min-heap)
-	 * act as a max heap.
+	 * act as a max heap. Equal subtree maxima are ordered by the tie rank of
+	 * the best word, so a subtrie sorts exactly where its best word would.
 	 */
 	public static class ReverseSubtreeMaxWeightComparator implements Comparator<Node> {
 		@Override
@@ -109,7 +407,11 @@ public class Node implements Comparable<Node> {
 			} else if (o1.mySubtreeMaxWeight > o2.mySubtreeMaxWeight) {
 				return -1;
 			}
-			return 0;
+			return Integer.compare(tieRankOf(o1), tieRankOf(o2));
+		}
+
+		private static int tieRankOf(Node node) {
+			return node.myBestWord == null ? Integer.MAX_VALUE : node.myBestWord.myTieRank;
 		}
 	}
 }
@@ -0,0 +1,135 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Wraps another Autocompletor so that matching ignores case, accents and
+ * compatibility differences, while suggestions keep their original form.
+ * 
+ * Every term is run through TermNormalizer.normalize() once, at build time,
+ * and the wrapped engine is built over the normalised terms. Each query is
+ * normalised per call with TermNormalizer.normalizeQuery(), and every result
+ * is mapped back to its display form. If several terms share a normalised
+ * form, the heaviest one is kept and shown.
+ * 
+ * Term ids in a MatchFilter refer to positions among the distinct
+ * normalised terms, which are the input positions when no two terms
+ * collide. The filter's predicate sees the normalised word.
+ */
+public class NormalizingAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	private final Autocomplete.Autocompletor myEngine;
+
+	/**
+	 * Normalised term to the original term shown to the user.
+	 */
+	private final HashMap<String, String> myDisplay;
+
+	private final ThreadLocal<TermNormalizer> myNormalizer = new ThreadLocal<TermNormalizer>() {
+		@Override
+		protected TermNormalizer initialValue() {
+			return new TermNormalizer();
+		}
+	};
+
+	/**
+	 * Wraps a TrieAutocomplete.
+	 */
+	public NormalizingAutocomplete(String[] terms, double[] weights) {
+		this(terms, weights, new BiFunction<String[], double[], Autocomplete.Autocompletor>() {
+			public Autocomplete.Autocompletor apply(String[] t, double[] w) {
+				return new Autocomplete.TrieAutocomplete(t, w);
+			}
+		});
+	}
+
+	/**
+	 * Normalises terms and builds the wrapped engine over them with engine.
+	 * 
+	 * @throws NullPointerException
+	 *             if any argument is null
+	 * @throws IllegalArgumentException
+	 *             if terms and weights differ in length
+	 */
+	public NormalizingAutocomplete(String[] terms, double[] weights,
+			BiFunction<String[], double[], Autocomplete.Autocompletor> engine) {
+		if (terms == null || weights == null || engine == null)
+			throw new NullPointerException("One or more arguments null");
+		if (terms.length != weights.length)
+			throw new IllegalArgumentException("terms and weights are not the same length");
+		LinkedHashMap<String, Integer> heaviest = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < terms.length; i++) {
+			String key = TermNormalizer.normalize(terms[i]);
+			Integer other = heaviest.get(key);
+			if (other == null || weights[i] > weights[other])
+				heaviest.put(key, i);
+		}
+		String[] keys = new String[heaviest.size()];
+		double[] keyWeights = new double[keys.length];
+		myDisplay = new HashMap<String, String>(2 * keys.length);
+		int j = 0;
+		for (Map.Entry<String, Integer> e : heaviest.entrySet()) {
+			keys[j] = e.getKey();
+			keyWeights[j++] = weights[e.getValue()];
+			myDisplay.put(e.getKey(), terms[e.getValue()]);
+		}
+		myEngine = engine.apply(keys, keyWeights);
+	}
+
+	/**
+	 * Returns the original form of a normalised term.
+	 */
+	String display(String normalized) {
+		String original = myDisplay.get(normalized);
+		return original == null ? normalized : original;
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return display(myEngine.topMatches(myNormalizer.get().normalizeQuery(prefix), k));
+	}
+
+	public Iterable<String> topMatches(String prefix, int k, MatchFilter filter) {
+		return display(myEngine.topMatches(myNormalizer.get().normalizeQuery(prefix), k, filter));
+	}
+
+	public String topMatch(String prefix) {
+		String match = myEngine.topMatch(myNormalizer.get().normalizeQuery(prefix));
+		return match.isEmpty() ? match : display(match);
+	}
+
+	public double weightOf(String term) {
+		return myEngine.weightOf(TermNormalizer.normalize(term));
+	}
+
+	private Iterable<String> display(final Iterable<String> matches) {
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				final Iterator<String> it = matches.iterator();
+				return new Iterator<String>() {
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					public String next() {
+						return display(it.next());
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Counts the wrapped engine, then the display map and whatever Strings
+	 * it holds that the engine does not.
+	 */
+	public void measure(MemoryFootprint footprint) {
+		footprint.addMeasurable(myEngine);
+		footprint.addHashMap("display map", myDisplay.size());
+		for (Map.Entry<String, String> e : myDisplay.entrySet()) {
+			footprint.addString("display strings", e.getKey());
+			footprint.addString("display strings", e.getValue());
+		}
+	}
+}
@@ -0,0 +1,416 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Tails a local query log and feeds decayed popularity back into the weights
+ * of a running Autocompletor.
+ * 
+ * Each log line records one selected term, either as the whole line or as
+ * the text after the last tab (e.g. "prefix\tterm"). Hits are counted with
+ * the space-saving heavy-hitters algorithm over at most capacity counters,
+ * so memory and per-line cost (O(log capacity)) stay bounded whatever the
+ * log volume. Once per period all counts are multiplied by the decay factor
+ * and every tracked term is pushed with weight base + boost * count, where
+ * base is the term's weight from before it was first tracked. Pushes are
+ * skipped when the weight has barely moved. A term whose counter is evicted
+ * gets its base weight back at the next flush, or is removed again if the
+ * engine did not have it; if it is tracked again before then, it keeps its
+ * old base rather than reading back its own boosted weight.
+ * 
+ * Updates go to a BiConsumer, normally IncrementalBinarySearchAutocomplete's
+ * put(), the one engine that takes weight changes without a rebuild. A null
+ * weight means the term is to be removed.
+ * 
+ * Lines longer than MAX_LINE_LENGTH bytes are skipped rather than buffered,
+ * so a log without newlines cannot grow the buffer without bound. Errors in
+ * the background task are counted, see getErrorCount(), and the task goes
+ * on at the next period.
+ */
+public class QueryLogIngester implements Closeable {
+
+	/**
+	 * Relative change below which a weight is not pushed again.
+	 */
+	static final double MIN_CHANGE = 0.01;
+
+	static final int READ_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Longest line kept, in bytes. Longer lines are dropped whole.
+	 */
+	static final int MAX_LINE_LENGTH = 1 << 16;
+
+	/**
+	 * A tracked term. Counters form a binary min-heap on count.
+	 */
+	private static class Counter {
+		final String term;
+		final double base;
+		/**
+		 * Whether the engine held term before it was tracked; if not, a reset
+		 * removes it.
+		 */
+		final boolean present;
+		double count;
+		double pushed;
+		int heapIndex;
+
+		Counter(String term, double base, boolean present, double count) {
+			this.term = term;
+			this.base = base;
+			this.present = present;
+			this.count = count;
+			this.pushed = base;
+		}
+
+		/**
+		 * Whether the engine holds a weight for term other than its base.
+		 */
+		boolean isBoosted() {
+			return pushed != base;
+		}
+	}
+
+	private final Path myLog;
+	private final Autocomplete.Autocompletor myEngine;
+	private final Predicate<String> myContains;
+	private final BiConsumer<String, Double> myUpdates;
+	private final double myBoost;
+	private final double myDecay;
+
+	private final HashMap<String, Counter> myCounters;
+	private final Counter[] myHeap;
+	private int mySize;
+
+	/**
+	 * Terms evicted since the last flush whose weight is to be reset, by
+	 * term, so that a term tracked again before then keeps its base.
+	 */
+	private final LinkedHashMap<String, Counter> myEvicted = new LinkedHashMap<String, Counter>();
+
+	private long myPosition;
+	private byte[] myPartial = new byte[0];
+
+	/**
+	 * Whether the rest of the current line is being dropped for being longer
+	 * than MAX_LINE_LENGTH.
+	 */
+	private boolean mySkipping;
+	private long mySkippedLines;
+
+	private ScheduledExecutorService myScheduler;
+	private final AtomicLong myErrors = new AtomicLong();
+	private volatile Exception myLastError;
+
+	/**
+	 * Feeds log into an IncrementalBinarySearchAutocomplete.
+	 */
+	public QueryLogIngester(Path log, final Autocomplete.IncrementalBinarySearchAutocomplete engine, int capacity,
+			double boost, double decay) {
+		this(log, engine, new Predicate<String>() {
+			public boolean test(String term) {
+				return engine.contains(term);
+			}
+		}, new BiConsumer<String, Double>() {
+			public void accept(String term, Double weight) {
+				if (weight == null)
+					engine.remove(term);
+				else
+					engine.put(term, weight);
+			}
+		}, capacity, boost, decay);
+	}
+
+	/**
+	 * Like the constructor below, taking a term the engine gives weight 0 to
+	 * be missing from it, since weightOf() cannot tell the two apart. Such a
+	 * term is removed again rather than reset to 0.
+	 */
+	public QueryLogIngester(Path log, final Autocomplete.Autocompletor engine, BiConsumer<String, Double> updates,
+			int capacity, double boost, double decay) {
+		this(log, engine, new Predicate<String>() {
+			public boolean test(String term) {
+				return engine.weightOf(term) > 0;
+			}
+		}, updates, capacity, boost, decay);
+	}
+
+	/**
+	 * @param log
+	 *            - The query log to tail, read from its current start
+	 * @param engine
+	 *            - Where base weights are looked up
+	 * @param contains
+	 *            - Whether engine holds a term at all
+	 * @param updates
+	 *            - Receives (term, new weight) pairs, with a null weight for
+	 *            a term to remove
+	 * @param capacity
+	 *            - Maximum number of terms tracked at once
+	 * @param boost
+	 *            - Weight added per (decayed) hit
+	 * @param decay
+	 *            - Factor in (0, 1] applied to every count once per period
+	 */
+	public QueryLogIngester(Path log, Autocomplete.Autocompletor engine, Predicate<String> contains,
+			BiConsumer<String, Double> updates, int capacity, double boost, double decay) {
+		if (log == null || engine == null || contains == null || updates == null)
+			throw new NullPointerException("One or more arguments null");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Illegal capacity " + capacity);
+		if (boost < 0 || !(decay > 0 && decay <= 1))
+			throw new IllegalArgumentException("Illegal boost or decay");
+		myLog = log;
+		myEngine = engine;
+		myContains = contains;
+		myUpdates = updates;
+		myBoost = boost;
+		myDecay = decay;
+		myCounters = new HashMap<String, Counter>(2 * capacity);
+		myHeap = new Counter[capacity];
+	}
+
+	/**
+	 * Starts reading the log and pushing weights every period on a daemon
+	 * thread.
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		if (myScheduler != null)
+			throw new IllegalStateException("Already started");
+		myScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "query-log-ingester");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		myScheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					poll();
+					flush();
+				} catch (IOException | RuntimeException e) {
+					// The log may be rotated or not exist yet; try again next
+					// period. An exception escaping would cancel the task.
+					myLastError = e;
+					myErrors.incrementAndGet();
+				}
+			}
+		}, 0, period, unit);
+	}
+
+	/**
+	 * Number of periods in which the background task failed so far.
+	 */
+	public long getErrorCount() {
+		return myErrors.get();
+	}
+
+	/**
+	 * The most recent failure of the background task, or null.
+	 */
+	public Exception getLastError() {
+		return myLastError;
+	}
+
+	/**
+	 * Number of lines dropped so far for being longer than MAX_LINE_LENGTH.
+	 */
+	public synchronized long getSkippedLines() {
+		return mySkippedLines;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (myScheduler != null) {
+			myScheduler.shutdownNow();
+			myScheduler = null;
+		}
+	}
+
+	/**
+	 * Reads whatever has been appended to the log since the last call and
+	 * counts it. Starts over if the log was truncated.
+	 * 
+	 * @return the number of complete lines read
+	 */
+	public synchronized int poll() throws IOException {
+		int lines = 0;
+		try (FileChannel channel = FileChannel.open(myLog, StandardOpenOption.READ)) {
+			if (channel.size() < myPosition) {
+				myPosition = 0;
+				myPartial = new byte[0];
+				mySkipping = false;
+			}
+			channel.position(myPosition);
+			ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			int read;
+			while ((read = channel.read(buf)) > 0) {
+				myPosition += read;
+				buf.flip();
+				byte[] chunk = new byte[myPartial.length + buf.remaining()];
+				System.arraycopy(myPartial, 0, chunk, 0, myPartial.length);
+				buf.get(chunk, myPartial.length, buf.remaining());
+				buf.clear();
+				int start = 0;
+				for (int i = 0; i < chunk.length; i++) {
+					if (chunk[i] == '\n') {
+						if (mySkipping) {
+							mySkipping = false;
+						} else if (i - start > MAX_LINE_LENGTH) {
+							// ended within this chunk before it could be dropped
+							mySkippedLines++;
+						} else {
+							int end = i > start && chunk[i - 1] == '\r' ? i - 1 : i;
+							hit(termOf(new String(chunk, start, end - start, StandardCharsets.UTF_8)));
+							lines++;
+						}
+						start = i + 1;
+					}
+				}
+				if (mySkipping || chunk.length - start > MAX_LINE_LENGTH) {
+					if (!mySkipping)
+						mySkippedLines++;
+					mySkipping = true;
+					start = chunk.length;
+				}
+				myPartial = Arrays.copyOfRange(chunk, start, chunk.length);
+			}
+		}
+		return lines;
+	}
+
+	private static String termOf(String line) {
+		int tab = line.lastIndexOf('\t');
+		return tab < 0 ? line : line.substring(tab + 1);
+	}
+
+	/**
+	 * Counts one hit on term.
+	 */
+	public synchronized void hit(String term) {
+		if (term.isEmpty())
+			return;
+		Counter c = myCounters.get(term);
+		if (c != null) {
+			c.count++;
+			siftDown(c.heapIndex);
+			return;
+		}
+		if (mySize < myHeap.length) {
+			c = track(term, 1);
+			c.heapIndex = mySize;
+			myHeap[mySize++] = c;
+			siftUp(c.heapIndex);
+		} else {
+			// Space-saving: the new term takes over the smallest counter and
+			// inherits its count, which bounds its overestimate.
+			Counter min = myHeap[0];
+			myCounters.remove(min.term);
+			if (min.isBoosted())
+				myEvicted.put(min.term, min);
+			c = track(term, min.count + 1);
+			c.heapIndex = 0;
+			myHeap[0] = c;
+			siftDown(0);
+		}
+		myCounters.put(term, c);
+	}
+
+	/**
+	 * Starts a counter for term. If term was evicted and not reset yet, the
+	 * engine still holds its boosted weight, so its base and what was pushed
+	 * for it carry over instead.
+	 */
+	private Counter track(String term, double count) {
+		Counter evicted = myEvicted.remove(term);
+		if (evicted == null)
+			return new Counter(term, myEngine.weightOf(term), myContains.test(term), count);
+		Counter c = new Counter(term, evicted.base, evicted.present, count);
+		c.pushed = evicted.pushed;
+		return c;
+	}
+
+	/**
+	 * Decays all counts by one period and pushes the weights that changed.
+	 * 
+	 * @return the number of weights pushed
+	 */
+	public synchronized int flush() {
+		int pushed = 0;
+		for (Counter c : myEvicted.values()) {
+			myUpdates.accept(c.term, c.present ? Double.valueOf(c.base) : null);
+			pushed++;
+		}
+		myEvicted.clear();
+		for (int i = 0; i < mySize; i++) {
+			Counter c = myHeap[i];
+			double weight = c.base + myBoost * c.count;
+			if (Math.abs(weight - c.pushed) > MIN_CHANGE * Math.max(1, c.pushed)) {
+				myUpdates.accept(c.term, weight);
+				c.pushed = weight;
+				pushed++;
+			}
+			// Scaling every count by the same factor keeps the heap valid.
+			c.count *= myDecay;
+		}
+		return pushed;
+	}
+
+	/**
+	 * Current decayed count of term, an overestimate by at most the count
+	 * of the counter it replaced, or 0 if it is not tracked.
+	 */
+	public synchronized double countOf(String term) {
+		Counter c = myCounters.get(term);
+		return c == null ? 0 : c.count;
+	}
+
+	private void siftUp(int i) {
+		Counter c = myHeap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (myHeap[parent].count <= c.count)
+				break;
+			place(myHeap[parent], i);
+			i = parent;
+		}
+		place(c, i);
+	}
+
+	private void siftDown(int i) {
+		Counter c = myHeap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= mySize)
+				break;
+			if (child + 1 < mySize && myHeap[child + 1].count < myHeap[child].count)
+				child++;
+			if (c.count <= myHeap[child].count)
+				break;
+			place(myHeap[child], i);
+			i = child;
+		}
+		place(c, i);
+	}
+
+	private void place(Counter c, int i) {
+		myHeap[i] = c;
+		c.heapIndex = i;
+	}
+}
@@ -0,0 +1,309 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Answers "which position in [lo, hi] has the largest weight" in O(log n)
+ * over a fixed array of weights, using a bottom-up segment tree of argmax
+ * positions. Ties go to the lower position.
+ * 
+ * Engines whose matches form a contiguous range of some sorted array use it
+ * to produce the top k of the range in O(k log n), without scanning the
+ * range: take the argmax, then split the range around it.
+ * 
+ * Only the order of the weights matters to the tree, so it can compare
+ * quantised keys instead of doubles; see Precision.
+ * 
+ * Ties going to the lower position suits engines whose positions are in
+ * lexicographic order, since that is how the Autocompletor contract breaks
+ * ties. Other engines pass a tie rank per position. The weight key and the
+ * inverted tie rank are then packed into one long per position, weight key
+ * in the high half, so that comparing two positions is still a single
+ * primitive compare.
+ */
+public class RangeMaxIndex implements MemoryFootprint.Measurable {
+
+	/**
+	 * How weights are compared inside the index. Whatever the precision,
+	 * weight() returns the weights the index was built from.
+	 */
+	public enum Precision {
+		/**
+		 * Compare the double weights themselves.
+		 */
+		DOUBLE,
+		/**
+		 * Compare the weights rounded to float, as int bit patterns (which
+		 * order non-negative floats correctly). Weights that round to the
+		 * same float tie and come out in position order. The doubles are kept
+		 * for weight().
+		 */
+		FLOAT,
+		/**
+		 * Compare dense ranks among the distinct weights, stored in 16 bits
+		 * when there are at most 65536 of them. Lossless; weight() looks the
+		 * rank up in a table of the distinct weights.
+		 */
+		RANK
+	}
+
+	/**
+	 * The weights, unless the precision is RANK, in which case myDistinct
+	 * holds the distinct weights in ascending order.
+	 */
+	private final double[] myWeights;
+	private final double[] myDistinct;
+
+	/**
+	 * Comparison keys for FLOAT and RANK; at most one is non-null.
+	 */
+	private final int[] myIntKeys;
+	private final char[] myCharKeys;
+
+	/**
+	 * Packed keys, used instead of the above when tie ranks were given:
+	 * (weight key << 32) | (0xFFFFFFFF - tie rank).
+	 */
+	private final long[] myLongKeys;
+
+	private final int mySize;
+
+	/**
+	 * Leaf i is at myTree[n + i]; internal node j holds the heavier of its
+	 * children 2j and 2j + 1.
+	 */
+	private final int[] myTree;
+
+	/**
+	 * Builds the index over weights, which is kept, not copied.
+	 */
+	public RangeMaxIndex(double[] weights) {
+		this(weights, Precision.DOUBLE);
+	}
+
+	/**
+	 * Builds the index over weights, comparing them at the given precision.
+	 * weights is kept, not copied, unless precision is RANK.
+	 */
+	public RangeMaxIndex(double[] weights, Precision precision) {
+		this(weights, precision, null);
+	}
+
+	/**
+	 * Builds the index over weights, comparing them at the given precision,
+	 * and breaking ties in favour of the lower tieRanks[i] rather than the
+	 * lower position. tieRanks may be null, and must not be negative.
+	 * Packed keys hold a 32-bit weight key, so with tie ranks DOUBLE is
+	 * compared as RANK, which orders the weights the same way.
+	 */
+	public RangeMaxIndex(double[] weights, Precision precision, int[] tieRanks) {
+		if (weights == null || precision == null)
+			throw new NullPointerException("One or more arguments null");
+		int n = weights.length;
+		if (tieRanks != null && tieRanks.length != n)
+			throw new IllegalArgumentException("weights and tieRanks are not the same length");
+		mySize = n;
+		if (precision == Precision.RANK || (precision == Precision.DOUBLE && tieRanks != null)) {
+			double[] sorted = weights.clone();
+			Arrays.sort(sorted);
+			int distinct = 0;
+			for (int i = 0; i < n; i++)
+				if (i == 0 || sorted[i] != sorted[distinct - 1])
+					sorted[distinct++] = sorted[i];
+			myDistinct = Arrays.copyOf(sorted, distinct);
+			myWeights = null;
+			int[] ranks = new int[n];
+			for (int i = 0; i < n; i++)
+				ranks[i] = rankOf(weights[i]);
+			if (tieRanks != null) {
+				myLongKeys = pack(ranks, tieRanks);
+				myCharKeys = null;
+				myIntKeys = null;
+			} else if (distinct <= Character.MAX_VALUE + 1) {
+				myCharKeys = new char[n];
+				for (int i = 0; i < n; i++)
+					myCharKeys[i] = (char) ranks[i];
+				myIntKeys = null;
+				myLongKeys = null;
+			} else {
+				myCharKeys = null;
+				myIntKeys = ranks;
+				myLongKeys = null;
+			}
+		} else {
+			myWeights = weights;
+			myDistinct = null;
+			myCharKeys = null;
+			if (precision == Precision.FLOAT) {
+				int[] keys = new int[n];
+				for (int i = 0; i < n; i++)
+					keys[i] = Float.floatToIntBits((float) weights[i]);
+				myIntKeys = tieRanks == null ? keys : null;
+				myLongKeys = tieRanks == null ? null : pack(keys, tieRanks);
+			} else {
+				myIntKeys = null;
+				myLongKeys = null;
+			}
+		}
+		myTree = new int[2 * n];
+		for (int i = 0; i < n; i++)
+			myTree[n + i] = i;
+		for (int i = n - 1; i >= 1; i--)
+			myTree[i] = heavier(myTree[2 * i], myTree[2 * i + 1]);
+	}
+
+	/**
+	 * Packs non-negative weight keys and tie ranks into keys whose natural
+	 * order is the order of the positions: heavier first, then lower tie rank.
+	 */
+	private static long[] pack(int[] weightKeys, int[] tieRanks) {
+		long[] keys = new long[weightKeys.length];
+		for (int i = 0; i < keys.length; i++) {
+			if (tieRanks[i] < 0)
+				throw new IllegalArgumentException("Negative tie rank " + tieRanks[i]);
+			keys[i] = ((long) weightKeys[i] << 32) | (0xFFFFFFFFL - tieRanks[i]);
+		}
+		return keys;
+	}
+
+	/**
+	 * Position of w in myDistinct; equal weights share a rank.
+	 */
+	private int rankOf(double w) {
+		int lo = 0, hi = myDistinct.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (myDistinct[mid] < w)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public double weight(int i) {
+		if (myWeights != null)
+			return myWeights[i];
+		if (myLongKeys != null)
+			return myDistinct[(int) (myLongKeys[i] >>> 32)];
+		return myDistinct[myCharKeys != null ? myCharKeys[i] : myIntKeys[i]];
+	}
+
+	/**
+	 * Returns the position of the largest weight in [lo, hi], or -1 if the
+	 * range is empty.
+	 */
+	public int argMax(int lo, int hi) {
+		int n = mySize;
+		int best = -1;
+		for (int l = lo + n, r = hi + n + 1; l < r; l >>= 1, r >>= 1) {
+			if ((l & 1) != 0)
+				best = heavier(best, myTree[l++]);
+			if ((r & 1) != 0)
+				best = heavier(best, myTree[--r]);
+		}
+		return best;
+	}
+
+	/**
+	 * Of two positions (either may be -1), returns the one with the larger
+	 * weight, or on a tie the one with the lower tie rank, or else the lower
+	 * position.
+	 */
+	public int heavier(int a, int b) {
+		if (a < 0)
+			return b;
+		if (b < 0)
+			return a;
+		if (myLongKeys != null) {
+			long ka = myLongKeys[a], kb = myLongKeys[b];
+			if (ka != kb)
+				return ka > kb ? a : b;
+		} else if (myCharKeys != null) {
+			char ka = myCharKeys[a], kb = myCharKeys[b];
+			if (ka != kb)
+				return ka > kb ? a : b;
+		} else if (myIntKeys != null) {
+			int ka = myIntKeys[a], kb = myIntKeys[b];
+			if (ka != kb)
+				return ka > kb ? a : b;
+		} else {
+			double wa = myWeights[a], wb = myWeights[b];
+			if (wa != wb)
+				return wa > wb ? a : b;
+		}
+		return Math.min(a, b);
+	}
+
+	/**
+	 * Returns a cursor over the positions in [lo, hi] in descending weight
+	 * order that skips everything lighter than minWeight.
+	 */
+	public Cursor cursor(int lo, int hi, double minWeight) {
+		return new Cursor(lo, hi, minWeight);
+	}
+
+	/**
+	 * Walks a range in descending weight order. It keeps a queue of disjoint
+	 * sub-ranges keyed by their argmax; each position taken splits its range
+	 * in two, so every step costs O(log n) and only as many steps are paid
+	 * for as are taken.
+	 */
+	public class Cursor {
+		// Each entry is {lo, hi, argMax(lo, hi)}.
+		private final PriorityQueue<int[]> ranges;
+		private final double minWeight;
+
+		Cursor(int lo, int hi, double minWeight) {
+			ranges = new PriorityQueue<int[]>(new Comparator<int[]>() {
+				public int compare(int[] a, int[] b) {
+					return heavier(a[2], b[2]) == a[2] ? -1 : 1;
+				}
+			});
+			this.minWeight = minWeight;
+			add(lo, hi);
+		}
+
+		/**
+		 * Returns the next heaviest position, or -1 if none is left.
+		 */
+		public int next() {
+			int[] range = ranges.poll();
+			if (range == null)
+				return -1;
+			int top = range[2];
+			add(range[0], top - 1);
+			add(top + 1, range[1]);
+			return top;
+		}
+
+		/**
+		 * Weight of the position next() would return, or negative infinity.
+		 */
+		public double peekWeight() {
+			int[] range = ranges.peek();
+			return range == null ? Double.NEGATIVE_INFINITY : weight(range[2]);
+		}
+
+		private void add(int lo, int hi) {
+			if (lo > hi)
+				return;
+			int top = argMax(lo, hi);
+			if (weight(top) >= minWeight)
+				ranges.add(new int[] { lo, hi, top });
+		}
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		footprint.addArray("weights", myWeights);
+		footprint.addArray("weights", myDistinct);
+		footprint.addArray("weight keys", myIntKeys);
+		footprint.addArray("weight keys", myCharKeys);
+		footprint.addArray("weight keys", myLongKeys);
+		footprint.addArray("range-max index", myTree);
+	}
+}
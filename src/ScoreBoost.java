@@ -0,0 +1,156 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Per-request adjustments to the static weights of a personalised top-k
+ * query, see TrieAutocomplete.topMatches(String, int, MatchFilter,
+ * ScoreBoost). A word's score is its weight times three factors, each 1
+ * unless that part of the boost is given:
+ *
+ * - recency decay: 2^(-age / halfLife), where age is the time from the
+ * word's timestamp to now, so a word last used one half-life ago counts
+ * half. Timestamps come from TrieAutocomplete.setWordContext().
+ * - user history: historyFactor for the words in the history set.
+ * - locale: the factor given for the word's locale, also from
+ * setWordContext().
+ *
+ * All factors are non-negative, so a subtrie's score is at most its
+ * heaviest weight times the largest value each factor can take in it,
+ * which is what keeps the search's pruning correct.
+ */
+public class ScoreBoost {
+
+	/**
+	 * A boost that leaves every weight as it is.
+	 */
+	public static final ScoreBoost NONE = new ScoreBoost(0, Double.POSITIVE_INFINITY, null, 1, null);
+
+	private final long myNow;
+	private final double myHalfLife;
+	private final Set<String> myHistory;
+	private final double myHistoryFactor;
+	private final double[] myLocaleFactors;
+
+	/**
+	 * @param now
+	 *            - The time ages are measured to, in the units of the
+	 *            word timestamps
+	 * @param halfLife
+	 *            - The age at which a word's score halves, or positive
+	 *            infinity for no decay
+	 * @param history
+	 *            - If non-null, the words boosted by historyFactor
+	 * @param historyFactor
+	 *            - The factor for words in history
+	 * @param localeFactors
+	 *            - If non-null, localeFactors[l] is the factor for words of
+	 *            locale l; words of other locales keep factor 1
+	 * @throws IllegalArgumentException
+	 *             if halfLife is not positive or a factor is negative or
+	 *             not a number
+	 */
+	public ScoreBoost(long now, double halfLife, Collection<String> history, double historyFactor,
+			double[] localeFactors) {
+		if (!(halfLife > 0))
+			throw new IllegalArgumentException("Illegal half-life " + halfLife);
+		checkFactor(historyFactor);
+		if (localeFactors != null)
+			for (double factor : localeFactors)
+				checkFactor(factor);
+		myNow = now;
+		myHalfLife = halfLife;
+		myHistory = history == null ? null : Collections.unmodifiableSet(new HashSet<String>(history));
+		myHistoryFactor = historyFactor;
+		myLocaleFactors = localeFactors == null ? null : localeFactors.clone();
+	}
+
+	private static void checkFactor(double factor) {
+		if (!(factor >= 0) || factor == Double.POSITIVE_INFINITY)
+			throw new IllegalArgumentException("Illegal factor " + factor);
+	}
+
+	/**
+	 * A boost that only decays scores with age.
+	 */
+	public static ScoreBoost recency(long now, double halfLife) {
+		return new ScoreBoost(now, halfLife, null, 1, null);
+	}
+
+	/**
+	 * A boost that only multiplies the scores of the words in history.
+	 */
+	public static ScoreBoost history(Collection<String> history, double factor) {
+		return new ScoreBoost(0, Double.POSITIVE_INFINITY, history, factor, null);
+	}
+
+	/**
+	 * A boost that only multiplies scores by their words' locale factors.
+	 */
+	public static ScoreBoost locales(double[] localeFactors) {
+		return new ScoreBoost(0, Double.POSITIVE_INFINITY, null, 1, localeFactors);
+	}
+
+	/**
+	 * Whether this boost changes any score at all.
+	 */
+	public boolean isNone() {
+		return !hasRecency() && !hasHistory() && !hasLocales();
+	}
+
+	public boolean hasRecency() {
+		return myHalfLife != Double.POSITIVE_INFINITY;
+	}
+
+	public boolean hasHistory() {
+		return myHistory != null && !myHistory.isEmpty() && myHistoryFactor != 1;
+	}
+
+	public boolean hasLocales() {
+		return myLocaleFactors != null;
+	}
+
+	/**
+	 * The decay factor of a word with the given timestamp. Timestamps after
+	 * now count as age zero.
+	 */
+	public double recencyFactor(double timestamp) {
+		if (!hasRecency())
+			return 1;
+		double age = Math.max(0, myNow - timestamp);
+		return Math.pow(2, -age / myHalfLife);
+	}
+
+	public Set<String> getHistory() {
+		return myHistory == null ? Collections.<String>emptySet() : myHistory;
+	}
+
+	public double getHistoryFactor() {
+		return myHistoryFactor;
+	}
+
+	/**
+	 * The factor of words of the given locale.
+	 */
+	public double localeFactor(int locale) {
+		if (myLocaleFactors == null || locale < 0 || locale >= myLocaleFactors.length)
+			return 1;
+		return myLocaleFactors[locale];
+	}
+
+	/**
+	 * Number of locales with a factor of their own.
+	 */
+	public int localeCount() {
+		return myLocaleFactors == null ? 0 : myLocaleFactors.length;
+	}
+
+	@Override
+	public String toString() {
+		return "ScoreBoost(now " + myNow + ", half-life " + myHalfLife + ", history " + getHistory().size() + " x "
+				+ myHistoryFactor + ", locales " + (myLocaleFactors == null ? "none" : Arrays.toString(myLocaleFactors))
+				+ ")";
+	}
+}
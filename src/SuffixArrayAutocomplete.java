@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements Autocompletor by substring ("contains") matching: a term
+ * matches if the query occurs anywhere in it. Matching ignores case.
+ * 
+ * The terms are case-folded and concatenated, each followed by a separator
+ * char, and a suffix array is built over the result by prefix doubling with
+ * counting sorts, in O(n log n) for n chars. The suffixes starting with the
+ * query are one contiguous range of the suffix array, found by binary search
+ * as in Autocomplete.firstIndexOf/lastIndexOf. Each suffix maps back to the
+ * term it starts in, and a RangeMaxIndex over the suffixes' term weights
+ * yields the range's terms in descending weight order without scanning all
+ * occurrences. A term that contains the query several times is returned
+ * once.
+ * 
+ * Memory is about 22 bytes per char of input (text, suffix array, suffix
+ * weights and range-max tree), plus the TermDictionary.
+ */
+public class SuffixArrayAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	static final char SEPARATOR = '\0';
+
+	private final TermDictionary myDictionary;
+
+	/**
+	 * The folded terms, each followed by SEPARATOR.
+	 */
+	private final char[] myText;
+
+	/**
+	 * myStarts[j] is where term j begins in myText.
+	 */
+	private final int[] myStarts;
+
+	/**
+	 * Start positions of the suffixes of myText in sorted order.
+	 */
+	private final int[] mySuffixes;
+
+	private final RangeMaxIndex myMaxIndex;
+
+	public SuffixArrayAutocomplete(String[] terms, double[] weights) {
+		this(new TermDictionary(terms, weights));
+	}
+
+	public SuffixArrayAutocomplete(TermDictionary dictionary) {
+		if (dictionary == null)
+			throw new NullPointerException("Dictionary is null.");
+		myDictionary = dictionary;
+		int m = dictionary.size();
+		long total = m;
+		for (int id = 0; id < m; id++)
+			total += dictionary.length(id);
+		if (total > Integer.MAX_VALUE / 2)
+			throw new IllegalArgumentException("Dictionary too large for a suffix array");
+		myText = new char[(int) total];
+		myStarts = new int[m];
+		int pos = 0;
+		for (int id = 0; id < m; id++) {
+			myStarts[id] = pos;
+			for (int i = 0; i < dictionary.length(id); i++)
+				myText[pos++] = fold(dictionary.charAt(id, i));
+			myText[pos++] = SEPARATOR;
+		}
+		mySuffixes = buildSuffixArray(myText);
+
+		// Equal weights are ordered by the terms' lexicographic ranks, since
+		// suffix order says nothing about the terms they start in.
+		int[] ranks = dictionary.lexicographicRanks();
+		double[] suffixWeights = new double[mySuffixes.length];
+		int[] suffixRanks = new int[mySuffixes.length];
+		for (int i = 0; i < mySuffixes.length; i++) {
+			int id = termOf(mySuffixes[i]);
+			suffixWeights[i] = dictionary.weight(id);
+			suffixRanks[i] = ranks[id];
+		}
+		myMaxIndex = new RangeMaxIndex(suffixWeights, RangeMaxIndex.Precision.RANK, suffixRanks);
+	}
+
+	static char fold(char c) {
+		return TermNormalizer.foldChar(c);
+	}
+
+	/**
+	 * Builds the suffix array of text by prefix doubling. Each round sorts
+	 * the suffixes by the ranks of their first 2h chars using two stable
+	 * counting sorts (second half, then first half), so every round is O(n)
+	 * and there are at most log n rounds.
+	 */
+	static int[] buildSuffixArray(char[] text) {
+		int n = text.length;
+		int[] sa = new int[n], rank = new int[n], tmp = new int[n];
+		if (n == 0)
+			return sa;
+
+		// Round 0: counting sort by the first char.
+		int[] count = new int[Math.max(Character.MAX_VALUE + 1, n) + 1];
+		for (int i = 0; i < n; i++)
+			count[text[i] + 1]++;
+		for (int c = 1; c < count.length; c++)
+			count[c] += count[c - 1];
+		for (int i = 0; i < n; i++)
+			sa[count[text[i]]++] = i;
+		int classes = 0;
+		rank[sa[0]] = 0;
+		for (int i = 1; i < n; i++) {
+			if (text[sa[i]] != text[sa[i - 1]])
+				classes++;
+			rank[sa[i]] = classes;
+		}
+		classes++;
+
+		for (int h = 1; classes < n; h <<= 1) {
+			// Order by second key: suffixes with no second half come first,
+			// then the rest in the order of their second half.
+			int p = 0;
+			for (int i = n - h; i < n; i++)
+				tmp[p++] = i;
+			for (int i = 0; i < n; i++) {
+				if (sa[i] >= h)
+					tmp[p++] = sa[i] - h;
+			}
+			// Stable counting sort by first key.
+			Arrays.fill(count, 0, classes + 1, 0);
+			for (int i = 0; i < n; i++)
+				count[rank[i] + 1]++;
+			for (int c = 1; c <= classes; c++)
+				count[c] += count[c - 1];
+			for (int i = 0; i < n; i++)
+				sa[count[rank[tmp[i]]]++] = tmp[i];
+			// Re-rank by (first key, second key).
+			tmp[sa[0]] = 0;
+			classes = 1;
+			for (int i = 1; i < n; i++) {
+				int a = sa[i - 1], b = sa[i];
+				int a2 = a + h < n ? rank[a + h] : -1;
+				int b2 = b + h < n ? rank[b + h] : -1;
+				if (rank[a] != rank[b] || a2 != b2)
+					classes++;
+				tmp[b] = classes - 1;
+			}
+			int[] swap = rank;
+			rank = tmp;
+			tmp = swap;
+		}
+		return sa;
+	}
+
+	/**
+	 * Returns the id of the term that position pos of myText belongs to
+	 * (a separator belongs to the term before it).
+	 */
+	int termOf(int pos) {
+		int lo = 0, hi = myStarts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (myStarts[mid] <= pos)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Compares the suffix at pos with query, looking at no more than
+	 * query.length() chars. Returns 0 if the suffix starts with query.
+	 */
+	private int compareToQuery(int pos, String query) {
+		for (int i = 0; i < query.length(); i++) {
+			if (pos + i == myText.length)
+				return -1;
+			char c = myText[pos + i];
+			if (c != query.charAt(i))
+				return c - query.charAt(i);
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns {first, last} of the suffixes starting with query, or null.
+	 */
+	private int[] range(String query) {
+		int beg = 0, end = mySuffixes.length - 1, first = -1;
+		while (beg <= end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compareToQuery(mySuffixes[mid], query);
+			if (cmp == 0)
+				first = mid;
+			if (cmp >= 0)
+				end = mid - 1;
+			else
+				beg = mid + 1;
+		}
+		if (first < 0)
+			return null;
+		beg = first;
+		end = mySuffixes.length - 1;
+		int last = first;
+		while (beg <= end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compareToQuery(mySuffixes[mid], query);
+			if (cmp == 0)
+				last = mid;
+			if (cmp > 0)
+				end = mid - 1;
+			else
+				beg = mid + 1;
+		}
+		return new int[] { first, last };
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return topMatches(prefix, k, MatchFilter.NONE);
+	}
+
+	/**
+	 * Returns the k heaviest terms containing the given substring, which is
+	 * called prefix only because of the Autocompletor interface.
+	 */
+	public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter) {
+		if (prefix == null || filter == null)
+			throw new NullPointerException("One or more arguments null");
+		if (k < 0)
+			throw new IllegalArgumentException("Illegal value of k:" + k);
+		StringBuilder folded = new StringBuilder(prefix.length());
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			// A separator would match across term boundaries.
+			if (c == SEPARATOR)
+				return new ArrayList<String>();
+			folded.append(fold(c));
+		}
+		final int[] range = range(folded.toString());
+		if (range == null || k == 0)
+			return new ArrayList<String>();
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new SubstringMatchIterator(range[0], range[1], k, filter);
+			}
+		};
+	}
+
+	/**
+	 * Yields the distinct terms of a suffix range in descending weight order.
+	 */
+	private class SubstringMatchIterator implements Iterator<String> {
+		private final RangeMaxIndex.Cursor cursor;
+		private final MatchFilter filter;
+		private final BitSet seen = new BitSet();
+		private int remaining;
+		private String pending;
+
+		SubstringMatchIterator(int lo, int hi, int k, MatchFilter filter) {
+			cursor = myMaxIndex.cursor(lo, hi, filter.getMinWeight());
+			this.filter = filter;
+			remaining = k;
+		}
+
+		public boolean hasNext() {
+			if (pending == null && remaining > 0)
+				pending = advance();
+			return pending != null;
+		}
+
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String word = pending;
+			pending = null;
+			remaining--;
+			return word;
+		}
+
+		private String advance() {
+			for (int s = cursor.next(); s >= 0; s = cursor.next()) {
+				int id = termOf(mySuffixes[s]);
+				if (seen.get(id))
+					continue;
+				seen.set(id);
+				if (!filter.acceptsId(id))
+					continue;
+				String word = myDictionary.term(id);
+				if (filter.acceptsWord(word))
+					return word;
+			}
+			return null;
+		}
+	}
+
+	public String topMatch(String prefix) {
+		Iterator<String> it = topMatches(prefix, 1).iterator();
+		return it.hasNext() ? it.next() : "";
+	}
+
+	public double weightOf(String term) {
+		int id = myDictionary.indexOf(term);
+		return id < 0 ? 0.0 : myDictionary.weight(id);
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		footprint.addMeasurable(myDictionary);
+		footprint.addArray("folded text", myText);
+		footprint.addArray("arrays", myStarts);
+		footprint.addArray("suffix array", mySuffixes);
+		footprint.addMeasurable(myMaxIndex);
+	}
+}
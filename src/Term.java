@@ -84,32 +84,33 @@ public class Term implements Comparable<Term> {
     }
 
     /**
-     * A Comparator for comparing Terms using only their weights, in descending
-     * order. This Comparator may be useful in writing your implementations of
-     * Autocompletor
+     * A Comparator for comparing Terms by weight in descending order, with
+     * equal weights in ascending lexicographic order of their words. This is
+     * the order in which every Autocompletor returns its results, so ties
+     * come out the same whichever engine answers. The words are only
+     * compared when the weights are equal.
      *
      */
     public static class ReverseWeightOrder implements Comparator<Term> {
         public int compare(Term v, Term w) {
-            // TODO: Implement ReverseWeightOrder.compare
             if (v.getWeight() < w.getWeight()) return 1;
             if (v.getWeight() > w.getWeight()) return -1;
-            return 0;
+            return v.getWord().compareTo(w.getWord());
         }
     }
 
     /**
-     * A Comparator for comparing Terms using only their weights, in ascending
-     * order. This Comparator may be useful in writing your implementations of
-     * Autocompletor
+     * The reverse of ReverseWeightOrder: ascending weight, with equal weights
+     * in descending lexicographic order of their words. The head of a
+     * PriorityQueue using it is the term that comes last in result order,
+     * so the queue can keep the top k.
      *
      */
     public static class WeightOrder implements Comparator<Term> {
         public int compare(Term v, Term w) {
-            // TODO: Implement WeightOrder.compare
             if (v.getWeight() < w.getWeight()) return -1;
             if (v.getWeight() > w.getWeight()) return 1;
-            return 0;
+            return w.getWord().compareTo(v.getWord());
         }
     }
 
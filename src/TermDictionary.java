@@ -0,0 +1,184 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A dictionary of distinct terms, each identified by a dense int id, stored
+ * in one shared char arena rather than as one String per term. Term id i
+ * occupies myChars[myOffsets[i] .. myOffsets[i + 1]) and has weight
+ * myWeights[i]. Ids follow the order of the input arrays.
+ * 
+ * Engines built from a TermDictionary keep ids instead of Strings and call
+ * term() only for the results they return, so several engines can share a
+ * single copy of the text. Lookups by String go through an open-addressing
+ * hash table of ids that compares against the arena directly.
+ */
+public class TermDictionary implements MemoryFootprint.Measurable {
+
+	private final char[] myChars;
+	private final int[] myOffsets;
+	private final double[] myWeights;
+
+	/**
+	 * Open-addressing table of id + 1, 0 meaning empty. Its length is a
+	 * power of two at least twice the number of terms.
+	 */
+	private final int[] myTable;
+
+	/**
+	 * Builds a dictionary holding terms[i] with weight weights[i] as id i.
+	 * 
+	 * @throws NullPointerException
+	 *             if either argument or any term is null
+	 * @throws IllegalArgumentException
+	 *             if the arrays differ in length, a weight is negative or a
+	 *             term occurs twice
+	 */
+	public TermDictionary(String[] terms, double[] weights) {
+		if (terms == null || weights == null)
+			throw new NullPointerException("One or more arguments null");
+		if (terms.length != weights.length)
+			throw new IllegalArgumentException("terms and weights are not the same length");
+		long total = 0;
+		for (String term : terms) {
+			if (term == null)
+				throw new NullPointerException("Null term");
+			total += term.length();
+		}
+		if (total > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Terms do not fit in one arena");
+		myChars = new char[(int) total];
+		myOffsets = new int[terms.length + 1];
+		myWeights = new double[terms.length];
+		myTable = new int[Math.max(2, Integer.highestOneBit(Math.max(1, terms.length)) << 2)];
+
+		int pos = 0;
+		for (int id = 0; id < terms.length; id++) {
+			if (weights[id] < 0)
+				throw new IllegalArgumentException("Negative weight " + weights[id]);
+			String term = terms[id];
+			term.getChars(0, term.length(), myChars, pos);
+			myOffsets[id] = pos;
+			pos += term.length();
+			myOffsets[id + 1] = pos;
+			myWeights[id] = weights[id];
+			int slot = slotOf(term);
+			if (myTable[slot] != 0)
+				throw new IllegalArgumentException("Duplicate input terms");
+			myTable[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Number of terms.
+	 */
+	public int size() {
+		return myWeights.length;
+	}
+
+	/**
+	 * Materialises term id as a new String.
+	 */
+	public String term(int id) {
+		return new String(myChars, myOffsets[id], length(id));
+	}
+
+	public double weight(int id) {
+		return myWeights[id];
+	}
+
+	public int length(int id) {
+		return myOffsets[id + 1] - myOffsets[id];
+	}
+
+	public char charAt(int id, int index) {
+		return myChars[myOffsets[id] + index];
+	}
+
+	/**
+	 * Whether term id starts with prefix, without materialising it.
+	 */
+	public boolean startsWith(int id, String prefix) {
+		int n = prefix.length();
+		if (n > length(id))
+			return false;
+		int base = myOffsets[id];
+		for (int i = 0; i < n; i++) {
+			if (myChars[base + i] != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares terms a and b lexicographically, like String.compareTo.
+	 */
+	public int compare(int a, int b) {
+		return Arrays.compare(myChars, myOffsets[a], myOffsets[a + 1], myChars, myOffsets[b], myOffsets[b + 1]);
+	}
+
+	/**
+	 * Returns each id's position in lexicographic order of the terms, the
+	 * tie-break order of the Autocompletor contract. Engines whose index is
+	 * not sorted by term pass these to RangeMaxIndex as tie ranks.
+	 */
+	public int[] lexicographicRanks() {
+		Integer[] order = new Integer[size()];
+		for (int id = 0; id < order.length; id++)
+			order[id] = id;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return TermDictionary.this.compare(a, b);
+			}
+		});
+		int[] ranks = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			ranks[order[i]] = i;
+		return ranks;
+	}
+
+	/**
+	 * Returns the id of term, or -1 if it is not in the dictionary.
+	 */
+	public int indexOf(String term) {
+		return myTable[slotOf(term)] - 1;
+	}
+
+	/**
+	 * Returns a CharSequence view of term id backed by the arena. The view
+	 * is a new object but copies no chars.
+	 */
+	public CharSequence view(int id) {
+		return CharBuffer.wrap(myChars, myOffsets[id], length(id));
+	}
+
+	/**
+	 * Finds the slot holding term, or the empty slot where it would go.
+	 */
+	private int slotOf(String term) {
+		int mask = myTable.length - 1;
+		int slot = mix(term.hashCode()) & mask;
+		while (true) {
+			int entry = myTable[slot];
+			if (entry == 0 || equalsTerm(entry - 1, term))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean equalsTerm(int id, String term) {
+		return length(id) == term.length() && startsWith(id, term);
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		footprint.addArray("dictionary chars", myChars);
+		footprint.addArray("dictionary arrays", myOffsets);
+		footprint.addArray("dictionary arrays", myWeights);
+		footprint.addArray("dictionary hash table", myTable);
+	}
+}
@@ -0,0 +1,85 @@
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * The one place where terms and queries are normalised for matching. A term
+ * is decomposed compatibly (NFKD), stripped of combining marks (accents),
+ * lower-cased and recomposed, which amounts to NFKC of the accent-free,
+ * case-folded text. "Emile" with an acute accent and "EMILE" both become
+ * "emile", and the "fi" ligature becomes "fi".
+ * 
+ * normalize() is meant for index build time. For queries, which arrive once
+ * per keystroke, an instance's normalizeQuery() handles the common ASCII case
+ * without the Normalizer: a query that is already folded is returned as is,
+ * without allocating, and an ASCII query with capitals is folded through a
+ * reusable buffer. Anything else goes through normalize(). Instances are
+ * therefore not thread-safe; keep one per thread.
+ * 
+ * Queries never end in the first half of a surrogate pair, so engines that
+ * work on UTF-16 chars (like TrieAutocomplete) never match half a code
+ * point.
+ */
+public class TermNormalizer {
+
+	private char[] myBuffer = new char[64];
+
+	/**
+	 * Returns the normalised form of s.
+	 */
+	public static String normalize(String s) {
+		String decomposed = Normalizer.normalize(s, Normalizer.Form.NFKD);
+		StringBuilder sb = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if (Character.getType(c) != Character.NON_SPACING_MARK)
+				sb.append(c);
+		}
+		String folded = sb.toString().toLowerCase(Locale.ROOT);
+		return dropDanglingSurrogate(Normalizer.normalize(folded, Normalizer.Form.NFC));
+	}
+
+	/**
+	 * Folds the case of a single char. Engines that compare char by char use
+	 * this where a full normalize() of the input is not possible.
+	 */
+	public static char foldChar(char c) {
+		if (c < 0x80)
+			return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		return Character.toLowerCase(c);
+	}
+
+	/**
+	 * Returns the normalised form of query, the same as normalize(query),
+	 * without allocating when query is ASCII and already folded.
+	 */
+	public String normalizeQuery(String query) {
+		int n = query.length();
+		int firstUpper = -1;
+		for (int i = 0; i < n; i++) {
+			char c = query.charAt(i);
+			if (c >= 0x80)
+				return normalize(query);
+			if (firstUpper < 0 && c >= 'A' && c <= 'Z')
+				firstUpper = i;
+		}
+		if (firstUpper < 0)
+			return query;
+		if (myBuffer.length < n)
+			myBuffer = new char[Math.max(n, 2 * myBuffer.length)];
+		char[] buf = myBuffer;
+		query.getChars(0, n, buf, 0);
+		for (int i = firstUpper; i < n; i++) {
+			char c = buf[i];
+			if (c >= 'A' && c <= 'Z')
+				buf[i] = (char) (c + ('a' - 'A'));
+		}
+		return new String(buf, 0, n);
+	}
+
+	private static String dropDanglingSurrogate(String s) {
+		int n = s.length();
+		if (n > 0 && Character.isHighSurrogate(s.charAt(n - 1)))
+			return s.substring(0, n - 1);
+		return s;
+	}
+}
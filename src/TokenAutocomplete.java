@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements Autocompletor by matching the query against the start of every
+ * word inside a term, not just the start of the term, so "deathly" finds
+ * "Harry Potter and the Deathly Hallows". A token starts at the beginning of
+ * the term and at every letter or digit that follows some other character.
+ * Matching ignores case.
+ * 
+ * The index is a token-suffix array: one entry per token start, sorted by
+ * the text from that token to the end of the term. The entries for a query
+ * token are therefore one contiguous range, found by binary search as in
+ * Autocomplete.firstIndexOf/lastIndexOf. A RangeMaxIndex over the entries'
+ * weights walks that range in descending weight order, so the top k cost
+ * O(k log n) however many terms share the token.
+ * 
+ * A query of several tokens matches the terms that have a distinct token
+ * starting with each of them, so "harry ha" needs a second "ha" token
+ * besides "harry". The engine walks the range of the rarest query token by
+ * weight and matches all the query tokens against each candidate's tokens,
+ * stopping as soon as k terms have been found.
+ * 
+ * The empty query matches every term, as it does in the other engines. A
+ * query that is not empty but has no letters or digits, such as " ", has no
+ * tokens and matches nothing.
+ * 
+ * Terms live in a TermDictionary, which can be shared with other engines.
+ * The index itself takes 24 bytes per token (entry, packed weight key and
+ * tree slot).
+ */
+public class TokenAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	private final TermDictionary myDictionary;
+
+	/**
+	 * Entry i is (term id << 32 | start of token), sorted by the folded text
+	 * from the token start to the end of the term.
+	 */
+	private final long[] myEntries;
+
+	private final RangeMaxIndex myMaxIndex;
+
+	public TokenAutocomplete(String[] terms, double[] weights) {
+		this(new TermDictionary(terms, weights));
+	}
+
+	public TokenAutocomplete(TermDictionary dictionary) {
+		if (dictionary == null)
+			throw new NullPointerException("Dictionary is null.");
+		myDictionary = dictionary;
+
+		int count = 0;
+		for (int id = 0; id < dictionary.size(); id++)
+			count += countTokens(id);
+		long[] entries = new long[count];
+		int e = 0;
+		for (int id = 0; id < dictionary.size(); id++) {
+			int n = dictionary.length(id);
+			for (int p = 0; p < n; p++) {
+				if (isTokenStart(id, p))
+					entries[e++] = ((long) id << 32) | p;
+			}
+			if (n == 0)
+				entries[e++] = (long) id << 32;
+		}
+		sort(entries);
+		myEntries = entries;
+
+		// Entries are sorted by token, not by term, so equal weights are
+		// ordered by the terms' lexicographic ranks instead of by position.
+		int[] ranks = dictionary.lexicographicRanks();
+		double[] entryWeights = new double[count];
+		int[] entryRanks = new int[count];
+		for (int i = 0; i < count; i++) {
+			entryWeights[i] = dictionary.weight(idOf(entries[i]));
+			entryRanks[i] = ranks[idOf(entries[i])];
+		}
+		myMaxIndex = new RangeMaxIndex(entryWeights, RangeMaxIndex.Precision.RANK, entryRanks);
+	}
+
+	static int idOf(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+	static int startOf(long entry) {
+		return (int) entry;
+	}
+
+	static char fold(char c) {
+		return TermNormalizer.foldChar(c);
+	}
+
+	private int countTokens(int id) {
+		int n = myDictionary.length(id);
+		if (n == 0)
+			return 1; // the empty term still matches the empty query
+		int count = 0;
+		for (int p = 0; p < n; p++) {
+			if (isTokenStart(id, p))
+				count++;
+		}
+		return count;
+	}
+
+	private boolean isTokenStart(int id, int p) {
+		if (p == 0)
+			return true;
+		return Character.isLetterOrDigit(myDictionary.charAt(id, p))
+				&& !Character.isLetterOrDigit(myDictionary.charAt(id, p - 1));
+	}
+
+	/**
+	 * Compares the folded suffixes of two entries.
+	 */
+	private int compareEntries(long a, long b) {
+		int ida = idOf(a), idb = idOf(b);
+		int pa = startOf(a), pb = startOf(b);
+		int na = myDictionary.length(ida) - pa, nb = myDictionary.length(idb) - pb;
+		int n = Math.min(na, nb);
+		for (int i = 0; i < n; i++) {
+			char ca = fold(myDictionary.charAt(ida, pa + i));
+			char cb = fold(myDictionary.charAt(idb, pb + i));
+			if (ca != cb)
+				return ca - cb;
+		}
+		return na - nb;
+	}
+
+	/**
+	 * Compares the first token.length() folded chars of an entry's suffix
+	 * with token, which is already folded. Returns 0 if the suffix starts
+	 * with token.
+	 */
+	private int compareToToken(long entry, String token) {
+		int id = idOf(entry), p = startOf(entry);
+		int n = myDictionary.length(id) - p;
+		for (int i = 0; i < token.length(); i++) {
+			if (i == n)
+				return -1;
+			char c = fold(myDictionary.charAt(id, p + i));
+			if (c != token.charAt(i))
+				return c - token.charAt(i);
+		}
+		return 0;
+	}
+
+	/**
+	 * Bottom-up merge sort of the entries by compareEntries. Entries are
+	 * packed longs, so this avoids boxing them for a Comparator.
+	 */
+	private void sort(long[] a) {
+		long[] src = a, dst = new long[a.length];
+		for (int width = 1; width < a.length; width *= 2) {
+			for (int lo = 0; lo < a.length; lo += 2 * width) {
+				int mid = Math.min(lo + width, a.length), hi = Math.min(lo + 2 * width, a.length);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi)
+					dst[k++] = compareEntries(src[j], src[i]) < 0 ? src[j++] : src[i++];
+				while (i < mid)
+					dst[k++] = src[i++];
+				while (j < hi)
+					dst[k++] = src[j++];
+			}
+			long[] tmp = src;
+			src = dst;
+			dst = tmp;
+		}
+		if (src != a)
+			System.arraycopy(src, 0, a, 0, a.length);
+	}
+
+	/**
+	 * Returns {first, last} of the entries whose suffix starts with token,
+	 * or null if there are none.
+	 */
+	private int[] range(String token) {
+		int beg = 0, end = myEntries.length - 1, first = -1;
+		while (beg <= end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compareToToken(myEntries[mid], token);
+			if (cmp == 0)
+				first = mid;
+			if (cmp >= 0)
+				end = mid - 1;
+			else
+				beg = mid + 1;
+		}
+		if (first < 0)
+			return null;
+		beg = first;
+		end = myEntries.length - 1;
+		int last = first;
+		while (beg <= end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compareToToken(myEntries[mid], token);
+			if (cmp == 0)
+				last = mid;
+			if (cmp > 0)
+				end = mid - 1;
+			else
+				beg = mid + 1;
+		}
+		return new int[] { first, last };
+	}
+
+	/**
+	 * Splits a query into folded tokens at every char that is not a letter
+	 * or digit.
+	 */
+	static ArrayList<String> tokenize(String query) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i <= query.length(); i++) {
+			if (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+				sb.append(fold(query.charAt(i)));
+			} else if (sb.length() > 0) {
+				tokens.add(sb.toString());
+				sb.setLength(0);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Whether term id has a distinct token starting with each of tokens,
+	 * which must be sorted longest first.
+	 * 
+	 * The term tokens a query token can take are nested or disjoint: if one
+	 * query token starts with another, every term token the longer one can
+	 * take the shorter can take too, and otherwise no term token starts with
+	 * both. Giving each query token, longest first, the first free term token
+	 * it fits therefore never takes one that a later query token needed and
+	 * could not replace, so this greedy assignment finds a matching whenever
+	 * one exists.
+	 */
+	private boolean hasTokens(int id, ArrayList<String> tokens) {
+		int n = myDictionary.length(id);
+		int[] used = new int[tokens.size()];
+		for (int t = 0; t < tokens.size(); t++) {
+			String token = tokens.get(t);
+			used[t] = -1;
+			for (int p = 0; p + token.length() <= n && used[t] < 0; p++) {
+				if (!isTokenStart(id, p) || contains(used, t, p))
+					continue;
+				int i = 0;
+				while (i < token.length() && fold(myDictionary.charAt(id, p + i)) == token.charAt(i))
+					i++;
+				if (i == token.length())
+					used[t] = p;
+			}
+			if (used[t] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean contains(int[] a, int n, int value) {
+		for (int i = 0; i < n; i++)
+			if (a[i] == value)
+				return true;
+		return false;
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return topMatches(prefix, k, MatchFilter.NONE);
+	}
+
+	public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter) {
+		if (prefix == null || filter == null)
+			throw new NullPointerException("One or more arguments null");
+		if (k < 0)
+			throw new IllegalArgumentException("Illegal value of k:" + k);
+		final ArrayList<String> tokens = tokenize(prefix);
+		if (tokens.isEmpty() && !prefix.isEmpty())
+			return new ArrayList<String>();
+		// Drive the search from the query token with the fewest entries.
+		int[] best = tokens.isEmpty() ? new int[] { 0, myEntries.length - 1 } : null;
+		for (String token : tokens) {
+			int[] r = range(token);
+			if (r == null)
+				return new ArrayList<String>();
+			if (best == null || r[1] - r[0] < best[1] - best[0])
+				best = r;
+		}
+		if (k == 0 || myEntries.length == 0)
+			return new ArrayList<String>();
+		// A single token is matched by its range alone.
+		if (tokens.size() == 1)
+			tokens.clear();
+		Collections.sort(tokens, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return b.length() - a.length();
+			}
+		});
+		final int[] range = best;
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new TokenMatchIterator(range[0], range[1], k, tokens, filter);
+			}
+		};
+	}
+
+	/**
+	 * Yields the distinct terms of an entry range in descending weight order
+	 * that have distinct tokens for all the query tokens, see hasTokens().
+	 */
+	private class TokenMatchIterator implements Iterator<String> {
+		private final RangeMaxIndex.Cursor cursor;
+		private final ArrayList<String> tokens;
+		private final MatchFilter filter;
+		// A term with several matching tokens appears once per token.
+		private final BitSet seen = new BitSet();
+		private int remaining;
+		private String pending;
+
+		TokenMatchIterator(int lo, int hi, int k, ArrayList<String> tokens, MatchFilter filter) {
+			cursor = myMaxIndex.cursor(lo, hi, filter.getMinWeight());
+			this.tokens = tokens;
+			this.filter = filter;
+			remaining = k;
+		}
+
+		public boolean hasNext() {
+			if (pending == null && remaining > 0)
+				pending = advance();
+			return pending != null;
+		}
+
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String word = pending;
+			pending = null;
+			remaining--;
+			return word;
+		}
+
+		private String advance() {
+			for (int e = cursor.next(); e >= 0; e = cursor.next()) {
+				int id = idOf(myEntries[e]);
+				if (seen.get(id))
+					continue;
+				seen.set(id);
+				if (!filter.acceptsId(id))
+					continue;
+				if (!tokens.isEmpty() && !hasTokens(id, tokens))
+					continue;
+				String word = myDictionary.term(id);
+				if (filter.acceptsWord(word))
+					return word;
+			}
+			return null;
+		}
+	}
+
+	public String topMatch(String prefix) {
+		Iterator<String> it = topMatches(prefix, 1).iterator();
+		return it.hasNext() ? it.next() : "";
+	}
+
+	public double weightOf(String term) {
+		int id = myDictionary.indexOf(term);
+		return id < 0 ? 0.0 : myDictionary.weight(id);
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		footprint.addMeasurable(myDictionary);
+		footprint.addArray("token suffixes", myEntries);
+		footprint.addMeasurable(myMaxIndex);
+	}
+}
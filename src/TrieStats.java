@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Shape statistics of a trie: node and word counts, and histograms of node
+ * depth, child count and word weight. compute() splits the trie into
+ * subtries at its first few branching nodes and walks each one iteratively
+ * as a task on a fork-join pool, so multi-million-node tries are covered in
+ * parallel and without deep recursion. Chains of single-child nodes above a
+ * branching node do not count towards the split depth, so a trie whose
+ * words all share a long prefix is still split.
+ */
+public class TrieStats {
+
+	/**
+	 * Subtries below this many branching nodes are walked by one task.
+	 */
+	static final int SPLIT_DEPTH = 2;
+
+	private long myNodes;
+	private long myWords;
+
+	/**
+	 * myDepths[d] nodes at depth d (the root is at depth 0), myFanouts[f]
+	 * nodes with f children, and myWeights[b] words of weight in [2^(b-1),
+	 * 2^b), bucket 0 holding weights below 1 and bucket 65 weights of 2^64
+	 * and more.
+	 */
+	private long[] myDepths = new long[0];
+	private long[] myFanouts = new long[0];
+	private final long[] myWeights = new long[66];
+
+	/**
+	 * Computes the statistics of the trie under root on the common pool.
+	 */
+	public static TrieStats compute(Node root) {
+		return compute(root, ForkJoinPool.commonPool());
+	}
+
+	public static TrieStats compute(Node root, ForkJoinPool pool) {
+		if (root == null || pool == null)
+			throw new NullPointerException("One or more arguments null");
+		return pool.invoke(new SubtreeTask(root, 0, 0));
+	}
+
+	@SuppressWarnings("serial")
+	private static class SubtreeTask extends RecursiveTask<TrieStats> {
+		private final Node myRoot;
+		private final int myDepth;
+		private final int mySplits;
+
+		/**
+		 * root is at the given depth, below splits branching nodes.
+		 */
+		SubtreeTask(Node root, int depth, int splits) {
+			myRoot = root;
+			myDepth = depth;
+			mySplits = splits;
+		}
+
+		@Override
+		protected TrieStats compute() {
+			TrieStats stats = new TrieStats();
+			if (mySplits >= SPLIT_DEPTH) {
+				stats.walk(myRoot, myDepth);
+				return stats;
+			}
+			Node node = myRoot;
+			int depth = myDepth;
+			while (node.childCount() == 1) {
+				stats.add(node, depth++);
+				node = node.childAt(0);
+			}
+			stats.add(node, depth);
+			List<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+			for (int i = 0; i < node.childCount(); i++)
+				tasks.add(new SubtreeTask(node.childAt(i), depth + 1, mySplits + 1));
+			for (SubtreeTask task : invokeAll(tasks))
+				stats.merge(task.join());
+			return stats;
+		}
+	}
+
+	/**
+	 * Adds every node under root, which is at the given depth.
+	 */
+	private void walk(Node root, int depth) {
+		Node[] nodes = new Node[64];
+		int[] depths = new int[64];
+		int size = 0;
+		nodes[size] = root;
+		depths[size++] = depth;
+		while (size > 0) {
+			Node node = nodes[--size];
+			int d = depths[size];
+			add(node, d);
+			int children = node.childCount();
+			if (size + children > nodes.length) {
+				nodes = Arrays.copyOf(nodes, Math.max(size + children, 2 * nodes.length));
+				depths = Arrays.copyOf(depths, nodes.length);
+			}
+			for (int i = 0; i < children; i++) {
+				nodes[size] = node.childAt(i);
+				depths[size++] = d + 1;
+			}
+		}
+	}
+
+	private void add(Node node, int depth) {
+		myNodes++;
+		myDepths = count(myDepths, depth);
+		myFanouts = count(myFanouts, node.childCount());
+		if (node.isWord) {
+			myWords++;
+			myWeights[weightBucket(node.myWeight)]++;
+		}
+	}
+
+	private static long[] count(long[] histogram, int i) {
+		if (i >= histogram.length)
+			histogram = Arrays.copyOf(histogram, Math.max(i + 1, 2 * histogram.length));
+		histogram[i]++;
+		return histogram;
+	}
+
+	static int weightBucket(double weight) {
+		if (!(weight >= 1))
+			return 0;
+		return Math.min(Math.getExponent(weight) + 1, 65);
+	}
+
+	private void merge(TrieStats other) {
+		myNodes += other.myNodes;
+		myWords += other.myWords;
+		myDepths = add(myDepths, other.myDepths);
+		myFanouts = add(myFanouts, other.myFanouts);
+		for (int i = 0; i < myWeights.length; i++)
+			myWeights[i] += other.myWeights[i];
+	}
+
+	private static long[] add(long[] a, long[] b) {
+		if (b.length > a.length)
+			a = Arrays.copyOf(a, b.length);
+		for (int i = 0; i < b.length; i++)
+			a[i] += b[i];
+		return a;
+	}
+
+	/**
+	 * Trims trailing empty buckets.
+	 */
+	private static long[] trim(long[] histogram) {
+		int n = histogram.length;
+		while (n > 0 && histogram[n - 1] == 0)
+			n--;
+		return Arrays.copyOf(histogram, n);
+	}
+
+	public long getNodeCount() {
+		return myNodes;
+	}
+
+	public long getWordCount() {
+		return myWords;
+	}
+
+	/**
+	 * Depth of the deepest node; the root is at depth 0.
+	 */
+	public int getMaxDepth() {
+		return trim(myDepths).length - 1;
+	}
+
+	/**
+	 * Element d is the number of nodes at depth d.
+	 */
+	public long[] getDepthHistogram() {
+		return trim(myDepths);
+	}
+
+	/**
+	 * Element f is the number of nodes with f children.
+	 */
+	public long[] getFanoutHistogram() {
+		return trim(myFanouts);
+	}
+
+	/**
+	 * Element b is the number of words weighing at least 2^(b-1) and less
+	 * than 2^b; element 0 counts weights below 1, and element 65, the last,
+	 * counts weights of 2^64 and more, including infinity.
+	 */
+	public long[] getWeightHistogram() {
+		return trim(myWeights);
+	}
+
+	@Override
+	public String toString() {
+		return myNodes + " nodes, " + myWords + " words, max depth " + getMaxDepth() + "\ndepths: "
+				+ Arrays.toString(getDepthHistogram()) + "\nfanouts: " + Arrays.toString(getFanoutHistogram())
+				+ "\nweights (log2 buckets): " + Arrays.toString(getWeightHistogram());
+	}
+}
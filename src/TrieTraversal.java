@@ -0,0 +1,184 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterative walks over a trie of Nodes. None of them recurse, so a trie built
+ * from very long terms cannot overflow the call stack; the pending nodes live
+ * in an ArrayDeque on the heap instead.
+ * 
+ * depthFirst() visits nodes in pre-order with children in label order,
+ * breadthFirst() level by level. stream() is backed by a Spliterator that
+ * splits at subtrees, so a parallel stream hands whole subtries to the
+ * worker threads.
+ */
+public class TrieTraversal {
+
+	private TrieTraversal() {
+	}
+
+	/**
+	 * Returns the nodes under root, root included, in depth-first pre-order.
+	 */
+	public static Iterable<Node> depthFirst(final Node root) {
+		if (root == null)
+			throw new NullPointerException("root is null");
+		return new Iterable<Node>() {
+			public Iterator<Node> iterator() {
+				return new Iterator<Node>() {
+					private final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+					{
+						stack.push(root);
+					}
+
+					public boolean hasNext() {
+						return !stack.isEmpty();
+					}
+
+					public Node next() {
+						if (stack.isEmpty())
+							throw new NoSuchElementException();
+						Node node = stack.pop();
+						// push in reverse so the smallest label comes out first
+						for (int i = node.childCount() - 1; i >= 0; i--)
+							stack.push(node.childAt(i));
+						return node;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Returns the nodes under root, root included, one depth at a time.
+	 */
+	public static Iterable<Node> breadthFirst(final Node root) {
+		if (root == null)
+			throw new NullPointerException("root is null");
+		return new Iterable<Node>() {
+			public Iterator<Node> iterator() {
+				return new Iterator<Node>() {
+					private final ArrayDeque<Node> queue = new ArrayDeque<Node>();
+					{
+						queue.add(root);
+					}
+
+					public boolean hasNext() {
+						return !queue.isEmpty();
+					}
+
+					public Node next() {
+						if (queue.isEmpty())
+							throw new NoSuchElementException();
+						Node node = queue.poll();
+						for (int i = 0; i < node.childCount(); i++)
+							queue.add(node.childAt(i));
+						return node;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Returns a stream of the nodes under root, root included. A parallel
+	 * stream splits the trie into subtries.
+	 */
+	public static Stream<Node> stream(Node root, boolean parallel) {
+		if (root == null)
+			throw new NullPointerException("root is null");
+		return StreamSupport.stream(new SubtreeSpliterator(root), parallel);
+	}
+
+	/**
+	 * The work left to a SubtreeSpliterator: a node, whether it still has to
+	 * be visited itself, and the range of its children whose subtries are
+	 * still to come.
+	 */
+	private static class Pending {
+		final Node node;
+		boolean visitNode;
+		int from;
+		final int to;
+
+		Pending(Node node, boolean visitNode, int from, int to) {
+			this.node = node;
+			this.visitNode = visitNode;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * Visits its nodes depth-first from a stack of Pending entries. Entries
+	 * near the bottom of the stack are closest to the root and so hold the
+	 * largest subtries; trySplit() gives away half of the bottom entry's
+	 * children, or the bottom entry itself if it has only one left.
+	 */
+	static class SubtreeSpliterator implements Spliterator<Node> {
+		private final ArrayDeque<Pending> myStack = new ArrayDeque<Pending>();
+
+		SubtreeSpliterator(Node root) {
+			myStack.push(new Pending(root, true, 0, root.childCount()));
+		}
+
+		private SubtreeSpliterator(Pending pending) {
+			myStack.push(pending);
+		}
+
+		public boolean tryAdvance(Consumer<? super Node> action) {
+			while (!myStack.isEmpty()) {
+				Pending top = myStack.peek();
+				if (top.visitNode) {
+					top.visitNode = false;
+					action.accept(top.node);
+					return true;
+				}
+				if (top.from == top.to) {
+					myStack.pop();
+					continue;
+				}
+				Node child = top.node.childAt(top.from++);
+				myStack.push(new Pending(child, true, 0, child.childCount()));
+			}
+			return false;
+		}
+
+		public Spliterator<Node> trySplit() {
+			Pending bottom = myStack.peekLast();
+			if (bottom == null)
+				return null;
+			// step down a chain of single children, which cannot be split
+			while (myStack.size() == 1 && !bottom.visitNode && bottom.to - bottom.from == 1) {
+				Node child = bottom.node.childAt(bottom.from);
+				myStack.pop();
+				bottom = new Pending(child, true, 0, child.childCount());
+				myStack.push(bottom);
+			}
+			int remaining = bottom.to - bottom.from;
+			if (remaining >= 2) {
+				int mid = bottom.from + remaining / 2;
+				SubtreeSpliterator prefix = new SubtreeSpliterator(
+						new Pending(bottom.node, bottom.visitNode, bottom.from, mid));
+				bottom.visitNode = false;
+				bottom.from = mid;
+				return prefix;
+			}
+			if (myStack.size() >= 2)
+				return new SubtreeSpliterator(myStack.pollLast());
+			return null;
+		}
+
+		public long estimateSize() {
+			return myStack.isEmpty() ? 0 : Long.MAX_VALUE;
+		}
+
+		public int characteristics() {
+			return NONNULL | DISTINCT;
+		}
+	}
+}
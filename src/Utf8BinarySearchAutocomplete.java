@@ -0,0 +1,298 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary-search Autocompletor that keeps every term as UTF-8 in one sorted
+ * byte array instead of as Term objects holding Strings. Terms are sorted
+ * by unsigned byte order, which for UTF-8 is code point order, so the terms
+ * starting with a prefix are still one contiguous range.
+ * 
+ * A query encodes its prefix once and runs two binary searches for the
+ * ends of its range, comparing raw bytes with Arrays.compareUnsigned.
+ * Nothing is decoded until a result is returned. A RangeMaxIndex over the
+ * sorted weights yields the range's terms in weight order, with ties in
+ * String order as the Autocompletor contract asks; see tieRanks().
+ * 
+ * A String with an unpaired surrogate has no UTF-8 form; getBytes() would
+ * put '?' in its place and so turn it into another term. Such terms are
+ * rejected, and queries and lookups containing one match nothing, see
+ * encode() and keyRange().
+ * 
+ * For ASCII-heavy dictionaries this needs one byte per char plus 24 bytes
+ * per term (offset, id, weight and range-max slots), about half of what
+ * BinarySearchAutocomplete's Terms and Strings take.
+ */
+public class Utf8BinarySearchAutocomplete implements Autocomplete.Autocompletor, MemoryFootprint.Measurable {
+
+	/**
+	 * The sorted terms, back to back. Term i is myBytes[myOffsets[i] ..
+	 * myOffsets[i + 1]).
+	 */
+	private final byte[] myBytes;
+	private final int[] myOffsets;
+
+	/**
+	 * myIds[i] is the index in the constructor's arrays of sorted term i.
+	 */
+	private final int[] myIds;
+
+	private final RangeMaxIndex myMaxIndex;
+
+	/**
+	 * Builds the engine with weights compared as dense ranks, which is
+	 * lossless.
+	 */
+	public Utf8BinarySearchAutocomplete(String[] terms, double[] weights) {
+		this(terms, weights, RangeMaxIndex.Precision.RANK);
+	}
+
+	/**
+	 * Builds the engine with weights compared at the given precision inside
+	 * the range-max index. weightOf() always returns the original weights.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the arrays differ in length, a weight is negative, a
+	 *             term holds an unpaired surrogate or occurs twice
+	 */
+	public Utf8BinarySearchAutocomplete(String[] terms, double[] weights, RangeMaxIndex.Precision precision) {
+		if (terms == null || weights == null || precision == null)
+			throw new NullPointerException("One or more arguments null");
+		if (terms.length != weights.length)
+			throw new IllegalArgumentException("terms and weights are not the same length");
+		final byte[][] encoded = new byte[terms.length][];
+		Integer[] order = new Integer[terms.length];
+		long total = 0;
+		for (int i = 0; i < terms.length; i++) {
+			if (weights[i] < 0)
+				throw new IllegalArgumentException("Negative weight " + weights[i]);
+			encoded[i] = encode(terms[i]);
+			if (encoded[i] == null)
+				throw new IllegalArgumentException("Unpaired surrogate in term " + i);
+			total += encoded[i].length;
+			order[i] = i;
+		}
+		if (total > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Terms do not fit in one byte array");
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Arrays.compareUnsigned(encoded[a], encoded[b]);
+			}
+		});
+		myBytes = new byte[(int) total];
+		myOffsets = new int[terms.length + 1];
+		myIds = new int[terms.length];
+		double[] sortedWeights = new double[terms.length];
+		int pos = 0;
+		for (int i = 0; i < terms.length; i++) {
+			byte[] term = encoded[order[i]];
+			if (i > 0 && Arrays.equals(term, encoded[order[i - 1]]))
+				throw new IllegalArgumentException("Duplicate input terms");
+			System.arraycopy(term, 0, myBytes, pos, term.length);
+			myOffsets[i] = pos;
+			pos += term.length;
+			myIds[i] = order[i];
+			sortedWeights[i] = weights[order[i]];
+		}
+		myOffsets[terms.length] = pos;
+		myMaxIndex = new RangeMaxIndex(sortedWeights, precision, tieRanks(terms, order));
+	}
+
+	/**
+	 * Returns tie ranks for a RangeMaxIndex over terms in the given order,
+	 * which is code point order, or null if it already agrees with
+	 * String.compareTo, by which the Autocompletor contract breaks ties. The
+	 * two only differ where a supplementary character meets a char from
+	 * U+E000 up, so the usual cost is one linear check.
+	 */
+	static int[] tieRanks(final String[] terms, final Integer[] order) {
+		int n = order.length;
+		boolean inStringOrder = true;
+		for (int i = 1; i < n && inStringOrder; i++)
+			inStringOrder = terms[order[i - 1]].compareTo(terms[order[i]]) < 0;
+		if (inStringOrder)
+			return null;
+		Integer[] positions = new Integer[n];
+		for (int i = 0; i < n; i++)
+			positions[i] = i;
+		Arrays.sort(positions, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return terms[order[a]].compareTo(terms[order[b]]);
+			}
+		});
+		int[] ranks = new int[n];
+		for (int i = 0; i < n; i++)
+			ranks[positions[i]] = i;
+		return ranks;
+	}
+
+	/**
+	 * Returns s as UTF-8, or null if s holds an unpaired surrogate. This is
+	 * a CharsetEncoder reporting malformed input, but a scan for lone
+	 * surrogates plus getBytes() is much cheaper for the usual well-formed
+	 * String.
+	 */
+	static byte[] encode(String s) {
+		return isWellFormed(s) ? s.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	/**
+	 * Whether every surrogate in s is part of a pair.
+	 */
+	static boolean isWellFormed(CharSequence s) {
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (!Character.isSurrogate(c))
+				continue;
+			if (Character.isLowSurrogate(c) || i + 1 == n || !Character.isLowSurrogate(s.charAt(i + 1)))
+				return false;
+			i++;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the UTF-8 keys bounding the terms that start with prefix, as
+	 * {lowest, highest}: a term matches if its first key.length bytes lie
+	 * between them. Usually both are just the encoded prefix. A prefix
+	 * ending in an unpaired high surrogate is matched by every supplementary
+	 * character with that high surrogate, so the bounds are the prefix
+	 * completed with the lowest and the highest low surrogate. Any other
+	 * unpaired surrogate cannot start a term, and the result is null.
+	 */
+	static byte[][] keyRange(String prefix) {
+		int n = prefix.length();
+		if (n > 0 && Character.isHighSurrogate(prefix.charAt(n - 1))) {
+			byte[] lowest = encode(prefix + '\uDC00');
+			return lowest == null ? null : new byte[][] { lowest, encode(prefix + '\uDFFF') };
+		}
+		byte[] key = encode(prefix);
+		return key == null ? null : new byte[][] { key, key };
+	}
+
+	/**
+	 * Compares sorted term i with key, looking at no more than key.length
+	 * bytes of the term if prefix is set. Returns 0 if the term starts with
+	 * (or, without prefix, equals) key.
+	 */
+	private int compare(int i, byte[] key, boolean prefix) {
+		int from = myOffsets[i], to = myOffsets[i + 1];
+		if (prefix && to - from > key.length)
+			to = from + key.length;
+		return Arrays.compareUnsigned(myBytes, from, to, key, 0, key.length);
+	}
+
+	/**
+	 * Returns the first sorted index whose term, cut to key.length bytes,
+	 * compares above key (or not below it, unless strict), or the number of
+	 * terms if there is none.
+	 */
+	private int search(byte[] key, boolean strict) {
+		int beg = 0, end = myIds.length;
+		while (beg < end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compare(mid, key, true);
+			if (cmp > 0 || (cmp == 0 && !strict))
+				end = mid;
+			else
+				beg = mid + 1;
+		}
+		return beg;
+	}
+
+	String termAt(int i) {
+		return new String(myBytes, myOffsets[i], myOffsets[i + 1] - myOffsets[i], StandardCharsets.UTF_8);
+	}
+
+	public Iterable<String> topMatches(String prefix, int k) {
+		return topMatches(prefix, k, MatchFilter.NONE);
+	}
+
+	public Iterable<String> topMatches(String prefix, final int k, final MatchFilter filter) {
+		if (prefix == null || filter == null)
+			throw new NullPointerException("One or more arguments null");
+		if (k < 0)
+			throw new IllegalArgumentException("Illegal value of k:" + k);
+		byte[][] keys = keyRange(prefix);
+		if (keys == null || k == 0)
+			return new ArrayList<String>();
+		final int f = search(keys[0], false);
+		final int l = search(keys[1], true) - 1;
+		if (f > l || k == 0)
+			return new ArrayList<String>();
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private final RangeMaxIndex.Cursor cursor = myMaxIndex.cursor(f, l, filter.getMinWeight());
+					private int remaining = k;
+					private String pending;
+
+					public boolean hasNext() {
+						while (pending == null && remaining > 0) {
+							int i = cursor.next();
+							if (i < 0)
+								break;
+							if (!filter.acceptsId(myIds[i]))
+								continue;
+							String word = termAt(i);
+							if (filter.acceptsWord(word))
+								pending = word;
+						}
+						return pending != null;
+					}
+
+					public String next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						String word = pending;
+						pending = null;
+						remaining--;
+						return word;
+					}
+				};
+			}
+		};
+	}
+
+	public String topMatch(String prefix) {
+		if (prefix == null)
+			throw new NullPointerException();
+		byte[][] keys = keyRange(prefix);
+		if (keys == null)
+			return "";
+		int f = search(keys[0], false);
+		int l = search(keys[1], true) - 1;
+		if (f > l)
+			return "";
+		return termAt(myMaxIndex.argMax(f, l));
+	}
+
+	public double weightOf(String term) {
+		byte[] key = encode(term);
+		if (key == null)
+			return 0.0;
+		int beg = 0, end = myIds.length - 1;
+		while (beg <= end) {
+			int mid = (beg + end) >>> 1;
+			int cmp = compare(mid, key, false);
+			if (cmp == 0)
+				return myMaxIndex.weight(mid);
+			if (cmp > 0)
+				end = mid - 1;
+			else
+				beg = mid + 1;
+		}
+		return 0.0;
+	}
+
+	public void measure(MemoryFootprint footprint) {
+		footprint.addArray("utf-8 bytes", myBytes);
+		footprint.addArray("arrays", myOffsets);
+		footprint.addArray("arrays", myIds);
+		footprint.addMeasurable(myMaxIndex);
+	}
+}